@@ -0,0 +1,124 @@
+package com.github.laim0nas100.jobsystem;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Job which task returns a {@link CompletionStage}. The worker thread is
+ * released as soon as the stage is returned, the job stays running until the
+ * stage completes. Completion events (and scheduling of dependents) happen on
+ * the thread that completes the stage.
+ *
+ * Cancelling the job also cancels the stage, if it supports
+ * {@link CompletionStage#toCompletableFuture()}. When retried, the task is
+ * called again for a new stage.
+ *
+ * @author laim0nas100
+ * @param <T>
+ */
+public class AsyncJob<T> extends Job<T> {
+
+    protected final Function<? super AsyncJob<T>, ? extends CompletionStage<? extends T>> call;
+    protected final CompletableFuture<T> result = new CompletableFuture<>();
+    protected volatile CompletionStage<? extends T> stage;
+
+    /**
+     *
+     * @param id
+     * @param call
+     */
+    public AsyncJob(Serializable id, Function<? super AsyncJob<T>, ? extends CompletionStage<? extends T>> call) {
+        super(id);
+        this.call = Objects.requireNonNull(call);
+    }
+
+    /**
+     *
+     * @param call
+     */
+    public AsyncJob(Function<? super AsyncJob<T>, ? extends CompletionStage<? extends T>> call) {
+        this(Job.getNextID(), call);
+    }
+
+    @Override
+    protected void execute() {
+        CompletionStage<? extends T> started;
+        try {
+            started = Objects.requireNonNull(call.apply(this), "Async job returned null stage");
+        } catch (Throwable e) {
+            finish(null, e);
+            return;
+        }
+        stage = started;
+        if (result.isCancelled()) { // cancelled while starting
+            cancelStage(started, true);
+        }
+        started.whenComplete(this::finish);
+    }
+
+    private void finish(T value, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error != null && !result.isCancelled() && prepareRetry(error)) {
+            stage = null;
+            complete(null, new ExecutionException(error));
+            return;
+        }
+        if (result.isCancelled()) {
+            error = new CancellationException("Job " + getID() + " was cancelled");
+        } else if (error == null) {
+            result.complete(value);
+        } else {
+            result.completeExceptionally(error);
+            if (!(error instanceof CancellationException)) {
+                error = new ExecutionException(error); // same as a failed Job
+            }
+        }
+        complete(value, error);
+    }
+
+    @Override
+    protected boolean cancelTask(boolean interrupt) {
+        boolean cancelled = result.cancel(interrupt);
+        CompletionStage<? extends T> started = stage;
+        if (cancelled && started != null) {
+            cancelStage(started, interrupt);
+        }
+        return cancelled;
+    }
+
+    private static void cancelStage(CompletionStage<?> stage, boolean interrupt) {
+        try {
+            stage.toCompletableFuture().cancel(interrupt);
+        } catch (UnsupportedOperationException ex) {
+            // can't cancel, the job completes when the stage does
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override
+    public T get(long time, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(time, unit);
+    }
+
+    /**
+     *
+     * @return result as a stage
+     */
+    public CompletionStage<T> toCompletionStage() {
+        return result.thenApply(value -> value); // completing it doesn't affect the job
+    }
+}
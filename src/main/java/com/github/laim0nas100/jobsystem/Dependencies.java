@@ -1,10 +1,19 @@
 package com.github.laim0nas100.jobsystem;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.function.Predicate;
 import com.github.laim0nas100.jobsystem.dependency.Dependency;
 import com.github.laim0nas100.jobsystem.dependency.JobDependency;
+import com.github.laim0nas100.jobsystem.dependency.MutuallyExclusivePointFIFO;
+import com.github.laim0nas100.jobsystem.dependency.ObservableDependency;
 import com.github.laim0nas100.jobsystem.events.SystemJobDependency;
 import com.github.laim0nas100.jobsystem.events.SystemJobEventName;
 
@@ -31,6 +40,22 @@ public abstract class Dependencies {
         };
     }
 
+    /**
+     * Creates dependency on given condition, that is checked again only after
+     * {@link ObservableDependency#changed()} is called.
+     *
+     * @param condition
+     * @return
+     */
+    public static ObservableDependency observable(BooleanSupplier condition) {
+        return new ObservableDependency() {
+            @Override
+            public boolean isCompleted(Job job) {
+                return condition.getAsBoolean();
+            }
+        };
+    }
+
     /**
      * Creates job dependency based on job system events;
      *
@@ -77,30 +102,33 @@ public abstract class Dependencies {
     }
 
     /**
-     * Adds JobDependecy to all jobs, that only allows 1 job to be executing at
-     * any given time from given collection. Creates (n-1) * (n-1) dependencies,
-     * where n is number of jobs submitted.
+     * Adds a shared {@link MutuallyExclusivePointFIFO} to all jobs, that only
+     * allows 1 job to be executing at any given time from given collection.
+     * Creates 1 dependency, checking it takes constant time. Jobs run in the
+     * order they became ready.
      *
      * @param jobs
      */
     public static void mutuallyExclusive(Collection<Job> jobs) {
+        mutuallyExclusivePoint(jobs);
+    }
+
+    /**
+     * Same as {@link #mutuallyExclusive(java.util.Collection)}, but returns
+     * the shared point.
+     *
+     * @param jobs
+     * @return shared point, null if there is nothing to exclude
+     */
+    public static MutuallyExclusivePointFIFO mutuallyExclusivePoint(Collection<Job> jobs) {
         if (jobs.size() <= 1) { // nothing to exclude
-            return;
+            return null;
         }
-
-        int i = 0;
-        for (Job main : jobs) {
-
-            int j = 0;
-            for (Job other : jobs) {
-
-                if (i != j) {
-                    main.addDependency(whileNotExecuting(other));
-                }
-                j++;
-            }
-            i++;
+        MutuallyExclusivePointFIFO point = new MutuallyExclusivePointFIFO();
+        for (Job job : jobs) {
+            point.addSharingJob(job);
         }
+        return point;
     }
 
     /**
@@ -172,6 +200,61 @@ public abstract class Dependencies {
         }
     }
 
+    /**
+     * Finds jobs that can never run if given jobs are submitted together: jobs
+     * in a dependency cycle and every job that depends on those. Only edges
+     * that wait for the upstream job to be done are followed (see
+     * {@link SystemJobDependency#isSettledOnDone()}), other dependencies, like
+     * {@link #whileNotExecuting(com.github.laim0nas100.jobsystem.Job)}, can be
+     * satisfied before that. Jobs outside of given collection are external,
+     * an external job that is done or was submitted to an executor is fine.
+     * Other external jobs were never submitted, so jobs that depend on them
+     * can never run as well. Runs in linear time (Kahn's algorithm).
+     *
+     * @param jobs
+     * @return jobs that can never run, in given order
+     */
+    public static List<Job> findUnrunnable(Collection<? extends Job> jobs) {
+        Map<Job, Integer> waiting = new LinkedHashMap<>();
+        for (Job job : jobs) {
+            waiting.put(job, 0);
+        }
+        Map<Job, List<Job>> downstream = new LinkedHashMap<>();
+        ArrayDeque<Job> resolved = new ArrayDeque<>();
+        for (Map.Entry<Job, Integer> entry : waiting.entrySet()) {
+            Job job = entry.getKey();
+            int count = 0;
+            if (job.doBefore != null) {
+                for (Dependency dep : (List<Dependency>) job.doBefore) {
+                    if (!(dep instanceof SystemJobDependency) || !((SystemJobDependency) dep).isSettledOnDone()) {
+                        continue;
+                    }
+                    Job upstream = ((SystemJobDependency) dep).getJob();
+                    if (waiting.containsKey(upstream)) {
+                        downstream.computeIfAbsent(upstream, k -> new ArrayList<>()).add(job);
+                        count++;
+                    } else if (upstream.executor == null && !upstream.isDone()) {
+                        count++; // unsubmitted, never resolved
+                    }
+                }
+            }
+            entry.setValue(count);
+            if (count == 0) {
+                resolved.add(job);
+            }
+        }
+        Job job;
+        while ((job = resolved.poll()) != null) {
+            waiting.remove(job);
+            for (Job next : downstream.getOrDefault(job, Collections.emptyList())) {
+                if (waiting.merge(next, -1, Integer::sum) == 0) {
+                    resolved.add(next);
+                }
+            }
+        }
+        return new ArrayList<>(waiting.keySet());
+    }
+
     public static Dependency any(JobDependency... deps) {
         if (deps == null || deps.length == 0) {
             throw new IllegalArgumentException("no JobDependecies");
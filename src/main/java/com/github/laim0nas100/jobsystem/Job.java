@@ -3,16 +3,23 @@ package com.github.laim0nas100.jobsystem;
 import com.github.laim0nas100.fastid.FastID;
 import com.github.laim0nas100.fastid.FastIDGen;
 import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -31,19 +38,91 @@ public class Job<T> implements RunnableFuture<T> {
 
     static FastIDGen idgen = new FastIDGen();
 
+    protected static final byte CALLABLE = 0;
+    protected static final byte FUNCTION = 1;
+    protected static final byte CONSUMER = 2;
+
+    /**
+     * Outcome of a successful job that returned null.
+     */
+    protected static final Object NULL_RESULT = new Object();
+    /**
+     * Outcome while cancel is interrupting the thread running the task.
+     */
+    protected static final Object INTERRUPTING = new Object();
+    protected static final Failure CANCELLED_RESULT = new Failure(null);
+
+    protected static final AtomicReferenceFieldUpdater<Job, Object> OUTCOME = AtomicReferenceFieldUpdater.newUpdater(Job.class, Object.class, "outcome");
+    protected static final AtomicLongFieldUpdater<Job> STATE = AtomicLongFieldUpdater.newUpdater(Job.class, "state");
+    protected static final AtomicReferenceFieldUpdater<Job, CountDownLatch> WAITERS = AtomicReferenceFieldUpdater.newUpdater(Job.class, CountDownLatch.class, "waiters");
+
+    /**
+     * Outcome of a failed job, cancelled if error is null.
+     */
+    protected static class Failure {
+
+        protected final Throwable error;
+
+        protected Failure(Throwable error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * Used by jobs that have no listeners of their own and no executor.
+     */
+    private static final EventListeners NO_LISTENERS = new EventListeners();
+
     protected List<Dependency> doBefore;
     protected List<Job> doAfter;
     public final Serializable id;
 
-    protected EventListeners listeners = new EventListeners();
-    
-    protected JobState state = new JobState();
+    /**
+     * Own listeners, null until one is added. Until then the job uses the
+     * listeners of its executor, shared by every such job.
+     */
+    protected EventListeners listeners;
+
+    /**
+     * Flags and counters laid out as told by {@link JobState}, updated through
+     * {@link #STATE}, so a job carries no separate state object.
+     */
+    protected volatile long state;
+
+    protected volatile JobExecutor executor;
 
-    protected Job canceledParent;
-    protected Job canceledRoot;
+    protected volatile Job canceledParent;
+    protected volatile Job canceledRoot;
 
-    protected final FutureTask<T> task;
-    protected Thread jobThread;
+    protected int priority = 0;
+    protected boolean hasDeadline = false;
+    protected long deadline;
+    protected boolean hasNotBefore = false;
+    protected long notBefore;
+
+    /**
+     * {@link Callable}, {@link Function} or {@link Consumer}, as told by
+     * {@link #kind}, stored as given to avoid wrapping.
+     */
+    protected final Object call;
+    protected final byte kind;
+    /**
+     * Result, {@link #NULL_RESULT} or {@link Failure}, null until the job
+     * completes. Not set by failed attempts that are retried.
+     */
+    protected volatile Object outcome;
+    /**
+     * Created by the first thread that waits for the outcome.
+     */
+    protected volatile CountDownLatch waiters;
+    protected RetryPolicy retryPolicy;
+    protected volatile TimerWheel.Timeout retryTimeout;
+    protected long timeoutNanos = 0;
+    protected volatile TimerWheel.Timeout timeoutTimer;
+    /**
+     * Thread running the task, interrupted when cancelled with interrupt.
+     */
+    protected volatile Thread jobThread;
 
     public static FastID getNextID() {
         return idgen.getAndIncrement();
@@ -56,7 +135,8 @@ public class Job<T> implements RunnableFuture<T> {
      */
     public Job(Serializable id, Consumer<? super Job<T>> call) {
         this.id = Objects.requireNonNull(id);
-        task = new FutureTask<>(() -> call.accept(this), null);
+        this.call = Objects.requireNonNull(call);
+        this.kind = CONSUMER;
     }
 
     /**
@@ -66,8 +146,8 @@ public class Job<T> implements RunnableFuture<T> {
      */
     public Job(Serializable id, Function<? super Job<T>, ? extends T> call) {
         this.id = Objects.requireNonNull(id);
-        task = new FutureTask<>(() -> call.apply(this));
-
+        this.call = Objects.requireNonNull(call);
+        this.kind = FUNCTION;
     }
 
     /**
@@ -86,6 +166,18 @@ public class Job<T> implements RunnableFuture<T> {
         this(Job.getNextID(), call);
     }
 
+    /**
+     * For subclasses that run their task differently. They must override get
+     * methods, {@link #execute()} and {@link #cancelTask(boolean)}.
+     *
+     * @param id
+     */
+    protected Job(Serializable id) {
+        this.id = Objects.requireNonNull(id);
+        this.call = null;
+        this.kind = CALLABLE;
+    }
+
     /**
      *
      * @param id
@@ -93,7 +185,8 @@ public class Job<T> implements RunnableFuture<T> {
      */
     public Job(Serializable id, Callable<T> call) {
         this.id = Objects.requireNonNull(id);
-        task = new FutureTask<>(call);
+        this.call = Objects.requireNonNull(call);
+        this.kind = CALLABLE;
     }
 
     /**
@@ -109,7 +202,11 @@ public class Job<T> implements RunnableFuture<T> {
      */
     @Override
     public T get() throws InterruptedException, ExecutionException {
-        return task.get();
+        Object out;
+        while (!isSettled(out = outcome)) {
+            waiters().await();
+        }
+        return report(out);
     }
 
     /**
@@ -118,7 +215,81 @@ public class Job<T> implements RunnableFuture<T> {
      */
     @Override
     public T get(long time, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        return task.get(time, unit);
+        long until = System.nanoTime() + unit.toNanos(time);
+        Object out;
+        while (!isSettled(out = outcome)) {
+            long left = until - System.nanoTime();
+            if (left <= 0) {
+                throw new TimeoutException();
+            }
+            waiters().await(left, TimeUnit.NANOSECONDS);
+        }
+        return report(out);
+    }
+
+    protected static boolean isSettled(Object out) {
+        return out != null && out != INTERRUPTING;
+    }
+
+    /**
+     * Latch is created on first wait. Outcome could have been settled before
+     * the latch was visible to {@link #release()}, so it is checked again
+     * after installing.
+     *
+     * @return latch that is released once outcome is settled
+     */
+    protected CountDownLatch waiters() {
+        CountDownLatch latch = waiters;
+        if (latch == null) {
+            WAITERS.compareAndSet(this, null, new CountDownLatch(1));
+            latch = waiters;
+            if (isSettled(outcome)) {
+                latch.countDown();
+            }
+        }
+        return latch;
+    }
+
+    /**
+     *
+     * @param out settled outcome
+     * @return result
+     * @throws ExecutionException if the task failed
+     * @throws CancellationException if cancelled
+     */
+    protected T report(Object out) throws ExecutionException {
+        if (out == NULL_RESULT) {
+            return null;
+        }
+        if (out instanceof Failure) {
+            Throwable error = ((Failure) out).error;
+            if (error == null) {
+                throw new CancellationException("Job " + getID() + " was cancelled");
+            }
+            throw new ExecutionException(error);
+        }
+        return (T) out;
+    }
+
+    /**
+     * Sets the outcome, unless it is already set, and wakes waiters.
+     *
+     * @param out
+     * @return whether the outcome was set
+     */
+    protected boolean settle(Object out) {
+        if (!OUTCOME.compareAndSet(this, null, out)) {
+            return false;
+        }
+        release();
+        return true;
+    }
+
+    protected void release() {
+        CountDownLatch latch = waiters;
+        if (latch != null) {
+            latch.countDown();
+        }
     }
 
     /**
@@ -177,15 +348,12 @@ public class Job<T> implements RunnableFuture<T> {
 
     protected boolean cancelInner(boolean interrupt, boolean propogate, Job root) {
 
-        if (state.trySetFlag(JobState.CANCELLED)) {
-            boolean canceledOk = task.cancel(interrupt);
-            fireSystemEvent(SystemJobEventName.ON_CANCEL);
+        if (trySetFlag(JobState.CANCELLED)) {
+            boolean canceledOk = cancelled(interrupt);
             if (propogate && doAfter != null) {
-                for (Job j : this.doAfter) {
-                    j.canceledRoot = root;
-                    j.canceledParent = this;
-                    j.cancelInner(interrupt, propogate, root);
-                }
+                ArrayDeque<Job> work = new ArrayDeque<>();
+                work.add(this);
+                propagateCancel(work, interrupt, root);
             }
             return canceledOk;
         }
@@ -193,6 +361,62 @@ public class Job<T> implements RunnableFuture<T> {
         return false;
     }
 
+    /**
+     * Cancels the task and fires {@link SystemJobEventName#ON_CANCEL}, after
+     * this job was marked as cancelled.
+     *
+     * @param interrupt
+     * @return whether task was cancelled
+     */
+    protected boolean cancelled(boolean interrupt) {
+        boolean canceledOk = cancelTask(interrupt);
+        TimerWheel.Timeout retry = retryTimeout;
+        if (retry != null && retry.cancel()) { // waiting for a retry, complete now
+            retryAfter(0);
+        }
+        fireSystemEvent(SystemJobEventName.ON_CANCEL);
+        return canceledOk;
+    }
+
+    /**
+     * Cancels child jobs of given cancelled jobs breadth first, using a
+     * worklist instead of recursion. Every job is cancelled once, by the first
+     * parent that reaches it. If the worklist grows past the fan out threshold
+     * of the job's executor, half of it continues on that executor (see
+     * {@link JobExecutor#setCancelFanOut(int)}).
+     *
+     * @param work cancelled jobs, whose children are not cancelled yet
+     * @param interrupt
+     * @param root
+     */
+    protected static void propagateCancel(ArrayDeque<Job> work, boolean interrupt, Job root) {
+        Job job;
+        while ((job = work.poll()) != null) {
+            if (job.doAfter == null) {
+                continue;
+            }
+            for (Job child : (List<Job>) job.doAfter) {
+                if (child.trySetFlag(JobState.CANCELLED)) {
+                    child.canceledRoot = root;
+                    child.canceledParent = job;
+                    child.cancelled(interrupt);
+                    work.add(child);
+                }
+            }
+            JobExecutor exe = job.executor;
+            int fanOut = exe == null ? 0 : exe.getCancelFanOut();
+            if (fanOut > 0 && work.size() >= fanOut) {
+                ArrayDeque<Job> split = new ArrayDeque<>();
+                for (int i = work.size() / 2; i > 0; i--) {
+                    split.add(work.pollLast());
+                }
+                if (!exe.fork(() -> propagateCancel(split, interrupt, root))) {
+                    work.addAll(split);
+                }
+            }
+        }
+    }
+
     /**
      * Cancel while interrupting and propagating to all child tasks that. Can
      * cancel even if task is done.
@@ -206,20 +430,40 @@ public class Job<T> implements RunnableFuture<T> {
     }
 
     /**
+     * Reserving dependencies (see {@link Dependency#isReserving()}) are
+     * checked last, if one of them is not completed, the ones before it are
+     * unreserved.
      *
      * @return whether this task is ready to run (all dependencies are
      * satisfied)
      */
     public boolean canRun() {
 
-        if (this.isDone()) {
+        if (this.isDone() || this.isDelayed()) {
             return false;
         }
         if (doBefore == null) {
             return true;
         }
+        boolean reserving = false;
         for (Dependency dep : this.doBefore) {
-            if (!dep.isCompleted(this)) {
+            if (dep.isReserving()) {
+                reserving = true;
+            } else if (!dep.isCompleted(this)) {
+                return false;
+            }
+        }
+        if (!reserving) {
+            return true;
+        }
+        for (int i = 0; i < doBefore.size(); i++) {
+            Dependency dep = doBefore.get(i);
+            if (dep.isReserving() && !dep.isCompleted(this)) {
+                for (int j = 0; j < i; j++) {
+                    if (doBefore.get(j).isReserving()) {
+                        doBefore.get(j).unreserve(this);
+                    }
+                }
                 return false;
             }
         }
@@ -253,7 +497,7 @@ public class Job<T> implements RunnableFuture<T> {
      */
     @Override
     public boolean isCancelled() {
-        return state.hasFlag(JobState.CANCELLED);
+        return hasFlag(JobState.CANCELLED);
     }
 
     /**
@@ -262,7 +506,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isSuccessfull() {
-        return state.hasFlag(JobState.SUCCESSFUL);
+        return hasFlag(JobState.SUCCESSFUL);
     }
 
     /**
@@ -271,7 +515,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isExceptional() {
-        return state.hasFlag(JobState.EXCEPTIONAL);
+        return hasFlag(JobState.EXCEPTIONAL);
     }
 
     /**
@@ -280,7 +524,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isDiscarded() {
-        return state.hasFlag(JobState.DISCARDED);
+        return hasFlag(JobState.DISCARDED);
     }
 
     /**
@@ -288,7 +532,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return whether this is currently running.
      */
     public boolean isRunning() {
-        return state.hasFlag(JobState.RUNNING);
+        return hasFlag(JobState.RUNNING);
     }
 
     /**
@@ -297,7 +541,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isScheduled() {
-        return state.hasFlag(JobState.SCHEDULED);
+        return hasFlag(JobState.SCHEDULED);
     }
 
     /**
@@ -306,7 +550,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isInterrupted() {
-        return state.hasFlag(JobState.INTERRUPTED);
+        return hasFlag(JobState.INTERRUPTED);
     }
 
     /**
@@ -315,7 +559,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isAborted() {
-        return state.isAborted();
+        return JobState.isAborted(state);
     }
 
     /**
@@ -324,7 +568,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isAttempted() {
-        return state.isAttempted();
+        return JobState.isAttempted(state);
     }
 
     /**
@@ -333,7 +577,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isRemovable() {
-        return state.isRemovable();
+        return JobState.isRemovable(state);
     }
 
     /**
@@ -342,7 +586,333 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public int getFailedToStart() {
-        return state.getFailedToStart();
+        return JobState.getFailedToStart(state);
+    }
+
+    /**
+     *
+     * @return how many times the job started running, retries included
+     */
+    public int getAttempts() {
+        return JobState.getAttempts(state);
+    }
+
+    /**
+     * Flags and failed to start counter, as {@code JobState.flags} held them
+     * before job state moved into the job.
+     *
+     * @return low 32 bits of {@link #state}
+     * @deprecated use the getters of the job
+     */
+    @Deprecated
+    public int getFlags() {
+        return (int) state;
+    }
+
+    protected boolean trySetFlag(int flag) {
+        long current;
+        do {
+            current = state;
+            if ((current & flag) != 0) {
+                return false; // already set
+            }
+            if (STATE.compareAndSet(this, current, current | flag)) {
+                return true;
+            }
+            LockSupport.parkNanos(1);// backoff
+        } while (true);
+    }
+
+    protected boolean tryClearFlag(int flag) {
+        long current;
+        do {
+            current = state;
+            if ((current & flag) == 0) {
+                return false; // already cleared
+            }
+            if (STATE.compareAndSet(this, current, current & ~flag)) {
+                return true;
+            }
+            LockSupport.parkNanos(1);// backoff
+        } while (true);
+    }
+
+    protected void setFlag(int flag) {
+        long current;
+        do {
+            current = state;
+            if ((current & flag) == flag) {
+                return;
+            }
+        } while (!STATE.compareAndSet(this, current, current | flag));
+    }
+
+    protected void clearFlag(int flag) {
+        long current;
+        do {
+            current = state;
+            if ((current & flag) == 0) {
+                return;
+            }
+        } while (!STATE.compareAndSet(this, current, current & ~flag));
+    }
+
+    protected boolean hasFlag(int flag) {
+        return (state & flag) != 0;
+    }
+
+    /**
+     * Saturates at 65535.
+     *
+     * @return failed to start count
+     */
+    protected int incrementFailedToStart() {
+        long current;
+        int count;
+        do {
+            current = state;
+            count = JobState.getFailedToStart(current);
+            if (count == 0xFFFF) {
+                return count;
+            }
+        } while (!STATE.compareAndSet(this, current, current + JobState.FAILED_INC));
+        return count + 1;
+    }
+
+    /**
+     * Saturates at {@link Integer#MAX_VALUE}.
+     *
+     * @return attempts
+     */
+    protected int incrementAttempts() {
+        long current;
+        int count;
+        do {
+            current = state;
+            count = JobState.getAttempts(current);
+            if (count == Integer.MAX_VALUE) {
+                return count;
+            }
+        } while (!STATE.compareAndSet(this, current, current + JobState.ATTEMPTS_INC));
+        return count + 1;
+    }
+
+    /**
+     * Held by the executor while it adds, moves or removes the job in its job
+     * sets, so those don't interleave. Never held while calling out.
+     */
+    protected void lockMembership() {
+        while (true) {
+            long current = state;
+            if ((current & JobState.MEMBERSHIP) == 0 && STATE.compareAndSet(this, current, current | JobState.MEMBERSHIP)) {
+                return;
+            }
+            LockSupport.parkNanos(1);// backoff
+        }
+    }
+
+    protected void unlockMembership() {
+        long current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, current & ~JobState.MEMBERSHIP));
+    }
+
+    /**
+     * {@link lt.lb.jobsystem.events.SystemJobEventName#ON_RETRY}
+     *
+     * @return whether the job failed and waits to be run again
+     */
+    public boolean isRetrying() {
+        return hasFlag(JobState.RETRYING);
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Retry the same job when it fails, instead of completing it
+     * exceptionally. Dependents only see the final outcome.
+     *
+     * @param retryPolicy
+     * @return
+     */
+    public Job setRetryPolicy(RetryPolicy retryPolicy) {
+        assertNoChange("retry policy");
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     *
+     * @return priority, higher runs first when executor dispatches by priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set priority, only used when executor dispatches by priority. Higher
+     * runs first.
+     *
+     * @param priority
+     * @return
+     */
+    public Job setPriority(int priority) {
+        assertNoChange("priority");
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     *
+     * @return whether a deadline was set
+     */
+    public boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     *
+     * @return deadline in {@link System#nanoTime()} terms, only meaningful if
+     * {@link #hasDeadline()}
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set deadline relative to now. Executor fires
+     * {@link SystemJobEventName#ON_DEADLINE_MISSED} if it passes before the
+     * job is executed or done, and can dispatch ready jobs earliest deadline
+     * first.
+     *
+     * @param time
+     * @param unit
+     * @return
+     */
+    public Job setDeadline(long time, TimeUnit unit) {
+        assertNoChange("deadline");
+        this.deadline = System.nanoTime() + unit.toNanos(time);
+        this.hasDeadline = true;
+        return this;
+    }
+
+    /**
+     * Whether the deadline has passed, regardless of it being detected.
+     *
+     * @return
+     */
+    public boolean isPastDeadline() {
+        return hasDeadline && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Delay the job relative to now. It can't run before the delay passes,
+     * executor wakes it up when it does, without rescanning.
+     *
+     * @param time
+     * @param unit
+     * @return
+     */
+    public Job setDelay(long time, TimeUnit unit) {
+        assertNoChange("delay");
+        this.notBefore = System.nanoTime() + unit.toNanos(time);
+        this.hasNotBefore = true;
+        return this;
+    }
+
+    /**
+     * The job can't run before given instant, millisecond precision. Same as
+     * {@link #setDelay(long, java.util.concurrent.TimeUnit)} with time left
+     * until given instant.
+     *
+     * @param instant
+     * @return
+     */
+    public Job setNotBefore(Instant instant) {
+        return setDelay(instant.toEpochMilli() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     * @return whether a delay was set
+     */
+    public boolean hasNotBefore() {
+        return hasNotBefore;
+    }
+
+    /**
+     *
+     * @return time before which the job can't run, in
+     * {@link System#nanoTime()} terms, only meaningful if
+     * {@link #hasNotBefore()}
+     */
+    public long getNotBefore() {
+        return notBefore;
+    }
+
+    /**
+     * Whether the delay has not passed yet.
+     *
+     * @return
+     */
+    public boolean isDelayed() {
+        return hasNotBefore && System.nanoTime() - notBefore < 0;
+    }
+
+    /**
+     * Set how long can the job take, counting from when it starts executing,
+     * retries included. Executor cancels it with interrupt when it runs out of
+     * time.
+     *
+     * @param time
+     * @param unit
+     * @return
+     */
+    public Job setTimeout(long time, TimeUnit unit) {
+        assertNoChange("timeout");
+        if (time <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive, got " + time);
+        }
+        this.timeoutNanos = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     *
+     * @return whether a timeout was set
+     */
+    public boolean hasTimeout() {
+        return timeoutNanos > 0;
+    }
+
+    /**
+     *
+     * @param unit
+     * @return timeout, 0 if not set
+     */
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@link lt.lb.jobsystem.events.SystemJobEventName#ON_TIMEOUT}
+     *
+     * @return
+     */
+    public boolean isTimedOut() {
+        return hasFlag(JobState.TIMED_OUT);
+    }
+
+    /**
+     * {@link lt.lb.jobsystem.events.SystemJobEventName#ON_DEADLINE_MISSED}
+     *
+     * @return
+     */
+    public boolean isDeadlineMissed() {
+        return hasFlag(JobState.DEADLINE_MISSED);
     }
 
     /**
@@ -382,7 +952,7 @@ public class Job<T> implements RunnableFuture<T> {
      */
     @Override
     public boolean isDone() {
-        return state.hasFlag(JobState.DONE);
+        return hasFlag(JobState.DONE);
     }
 
     /**
@@ -391,7 +961,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isExecuted() {
-        return state.hasFlag(JobState.EXECUTED);
+        return hasFlag(JobState.EXECUTED);
     }
 
     /**
@@ -400,7 +970,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @return
      */
     public boolean isExceptionalEvent() {
-        return state.hasFlag(JobState.EXCEPTIONAL_EVENT);
+        return hasFlag(JobState.EXCEPTIONAL_EVENT);
     }
 
     /**
@@ -485,60 +1055,245 @@ public class Job<T> implements RunnableFuture<T> {
      */
     @Override
     public void run() {
+        if (isRetrying()) {
+            runRetry();
+            return;
+        }
         if (isExecuted()) {
             return;
         }
         if (!canRun()) {
-            state.incrementFailedToStart();
+            incrementFailedToStart();
+            clearFlag(JobState.SCHEDULED); // clear before listeners, so they can reschedule
             fireSystemEvent(SystemJobEventName.ON_FAILED_TO_START);
-            state.clearFlag(JobState.SCHEDULED);
             return;
         }
-        if (state.trySetFlag(JobState.RUNNING)) { // ensure only one running instance
-            state.setFlag(JobState.EXECUTED);
+        if (trySetFlag(JobState.RUNNING)) { // ensure only one running instance
+            setFlag(JobState.EXECUTED);
+            incrementAttempts();
             jobThread = Thread.currentThread();
             fireSystemEvent(SystemJobEventName.ON_EXECUTE);
+            execute();
+        }
 
-            try {
-                runTask();
-                T result = task.get();
-                state.setFlag(JobState.SUCCESSFUL);
-                fireSystemEvent(SystemJobEventName.ON_SUCCESSFUL, Optional.ofNullable(result));
-            } catch (InterruptedException e) {
-                state.setFlag(JobState.INTERRUPTED);
-                fireSystemEvent(SystemJobEventName.ON_INTERRUPTED);
-            } catch (Throwable e) { // execution exception or cancellation exception
-                state.setFlag(JobState.EXCEPTIONAL);
-                fireSystemEvent(SystemJobEventName.ON_EXCEPTIONAL, Optional.of(e));
+    }
+
+    /**
+     * Run again after a failed attempt. Dependencies are not checked again,
+     * the job was allready executed.
+     */
+    protected void runRetry() {
+        if (trySetFlag(JobState.RUNNING)) {
+            incrementAttempts();
+            clearFlag(JobState.RETRYING);
+            jobThread = Thread.currentThread();
+            if (isCancelled()) { // cancelled while waiting
+                cancelTask(false);
+                complete(null, new CancellationException("Job " + getID() + " was cancelled"));
+            } else {
+                execute();
             }
+        }
+    }
+
+    /**
+     * Decide whether a failed attempt is retried. Must be called before the
+     * attempt completes.
+     *
+     * @param error error thrown by the task
+     * @return whether the job is going to be retried
+     */
+    protected boolean prepareRetry(Throwable error) {
+        RetryPolicy policy = retryPolicy;
+        if (policy == null || error instanceof InterruptedException || error instanceof CancellationException
+                || isCancelled() || getAttempts() >= policy.getMaxAttempts() || !policy.isRetryable(error)) {
+            return false;
+        }
+        return trySetFlag(JobState.RETRYING);
+    }
+
+    /**
+     * Run this job again after given delay, on the executor it was submitted
+     * to.
+     *
+     * @param delayNanos
+     */
+    protected void retryAfter(long delayNanos) {
+        JobExecutor exe = executor;
+        if (exe != null) {
+            retryTimeout = exe.retry(this, delayNanos);
+        } else {
+            retryTimeout = TimerWheel.getDefault().schedule(() -> ForkJoinPool.commonPool().execute(this), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
 
-            fireSystemEvent(SystemJobEventName.ON_ATTEMPTED);
-            if (state.trySetFlag(JobState.DONE)) {
-                fireSystemEvent(SystemJobEventName.ON_DONE);
+    /**
+     * Runs the task and completes the job. Override to complete the job later,
+     * but {@link #complete(java.lang.Object, java.lang.Throwable)} must be
+     * called exactly once.
+     */
+    protected void execute() {
+        T result = null;
+        Throwable error = null;
+        if (outcome == null) { // not cancelled before running
+            try {
+                result = runTask();
+            } catch (Throwable e) {
+                error = e;
             }
+        }
+        jobThread = null;
+        while (outcome == INTERRUPTING) {
+            Thread.yield(); // cancel interrupts this thread before it moves on
+        }
+        if (error != null && outcome == null && prepareRetry(error)) {
+            complete(null, new ExecutionException(error)); // outcome is left to the next attempt
+        } else if (settle(error == null ? (result == null ? NULL_RESULT : result) : new Failure(error))) {
+            complete(result, error == null ? null : new ExecutionException(error));
+        } else {
+            complete(null, new CancellationException("Job " + getID() + " was cancelled"));
+        }
+    }
 
-            if (!state.tryClearFlag(JobState.RUNNING)) {
+    /**
+     * Fires completion events and stops running.
+     *
+     * @param result task result
+     * @param error task error, null if successful
+     */
+    protected void complete(T result, Throwable error) {
+        JobExecutor exe = executor;
+        if (exe != null) {
+            exe.taskReturned(this);
+        }
+        if (error != null && isRetrying()) {
+            fireRawSystemEvent(SystemJobEventName.ON_RETRY, error);
+            if (!tryClearFlag(JobState.RUNNING)) {
                 throw new IllegalStateException("After job:" + getID() + " ran, property running was set to false");
             }
+            retryAfter(isCancelled() ? 0 : retryPolicy.getDelayNanos(getAttempts()));
+            TimerWheel.Timeout retry = retryTimeout;
+            if (isCancelled() && retry.cancel()) { // cancelled while scheduling, complete now
+                retryAfter(0);
+            }
+            return;
+        }
+        if (error == null) {
+            setFlag(JobState.SUCCESSFUL);
+            fireRawSystemEvent(SystemJobEventName.ON_SUCCESSFUL, result);
+        } else if (error instanceof InterruptedException) {
+            setFlag(JobState.INTERRUPTED);
+            fireSystemEvent(SystemJobEventName.ON_INTERRUPTED);
+        } else {
+            setFlag(JobState.EXCEPTIONAL);
+            fireRawSystemEvent(SystemJobEventName.ON_EXCEPTIONAL, error);
+        }
 
+        TimerWheel.Timeout timeout = timeoutTimer;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        fireSystemEvent(SystemJobEventName.ON_ATTEMPTED);
+        if (trySetFlag(JobState.DONE)) {
+            fireSystemEvent(SystemJobEventName.ON_DONE);
         }
 
+        if (!tryClearFlag(JobState.RUNNING)) {
+            throw new IllegalStateException("After job:" + getID() + " ran, property running was set to false");
+        }
     }
 
     /**
-     * You can override to run actual task on a different executor, override
-     * with caution.
+     * Calls the task once. You can override to run actual task on a different
+     * executor, override with caution.
+     *
+     * This replaces {@code void runTask()} and the protected
+     * {@code FutureTask task} field it ran, so that jobs don't allocate a
+     * {@link java.util.concurrent.FutureTask}. Overrides written for them
+     * don't compile, they must return the result or throw the error of the
+     * task instead.
+     *
+     * @return task result
+     * @throws Exception task error
+     */
+    protected T runTask() throws Exception {
+        switch (kind) {
+            case FUNCTION:
+                return ((Function<? super Job<T>, ? extends T>) call).apply(this);
+            case CONSUMER:
+                ((Consumer<? super Job<T>>) call).accept(this);
+                return null;
+            default:
+                return ((Callable<T>) call).call();
+        }
+    }
+
+    /**
+     * Cancels the actual task, interrupting it if it is running.
+     *
+     * @param interrupt
+     * @return whether task was cancelled
      */
-    protected void runTask() {
-        task.run();
+    protected boolean cancelTask(boolean interrupt) {
+        if (!OUTCOME.compareAndSet(this, null, interrupt ? INTERRUPTING : CANCELLED_RESULT)) {
+            return false;
+        }
+        if (interrupt) {
+            try {
+                Thread runner = jobThread;
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            } finally {
+                outcome = CANCELLED_RESULT;
+            }
+        }
+        release();
+        return true;
     }
 
     /**
-     * You can override this to save a JobExecutor reference, but don't forget
-     * to call listeners.assignJobExecutorMap, or just call super.
+     * Saves the JobExecutor reference and assigns its listeners. If you
+     * override this, don't forget to call super.
      */
     protected void executorSubmission(JobExecutor executor) {
-        listeners.assignJobExecutorMap(executor.getExecutorJobListeners());
+        this.executor = executor;
+        if (listeners != null) {
+            listeners.assignJobExecutorMap(executor.getExecutorJobListeners());
+        }
+    }
+
+    /**
+     *
+     * @return own listeners, or shared ones if there are none
+     */
+    protected EventListeners listeners() {
+        EventListeners own = listeners;
+        if (own != null) {
+            return own;
+        }
+        JobExecutor exe = executor;
+        return exe == null ? NO_LISTENERS : exe.getSharedListeners();
+    }
+
+    protected EventListeners ownListeners() {
+        if (listeners == null) {
+            EventListeners own = new EventListeners();
+            JobExecutor exe = executor;
+            if (exe != null) {
+                own.assignJobExecutorMap(exe.getExecutorJobListeners());
+            }
+            listeners = own;
+        }
+        return listeners;
+    }
+
+    /**
+     *
+     * @return executor this job was last submitted to, or null
+     */
+    public JobExecutor getExecutor() {
+        return executor;
     }
 
     /**
@@ -549,7 +1304,7 @@ public class Job<T> implements RunnableFuture<T> {
      */
     public void addListener(Serializable name, JobEventListener listener) {
         assertNoChange("listeners");
-        listeners.add(name, listener);
+        ownListeners().add(name, listener);
     }
 
     /**
@@ -560,7 +1315,7 @@ public class Job<T> implements RunnableFuture<T> {
      */
     public void addListener(SystemJobEventName name, JobEventListener listener) {
         assertNoChange("systemListeners");
-        listeners.add(name, listener);
+        ownListeners().add(name, listener);
     }
 
     protected void assertNoChange(String msg) {
@@ -575,7 +1330,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @param event
      */
     public void fireEvent(Serializable classifier) {
-        fireEvent(classifier, Optional.empty(), listeners.get(classifier), false);
+        fireEvent(classifier, Optional.empty());
     }
 
     /**
@@ -584,7 +1339,11 @@ public class Job<T> implements RunnableFuture<T> {
      * @param event
      */
     public void fireEvent(Serializable classifier, Optional data) {
-        fireEvent(classifier, data, listeners.get(classifier), false);
+        if (classifier instanceof SystemJobEventName) {
+            fireSystemEvent((SystemJobEventName) classifier, data);
+        } else {
+            fireEvent(classifier, data, listeners().get(classifier), false);
+        }
     }
 
     /**
@@ -594,7 +1353,7 @@ public class Job<T> implements RunnableFuture<T> {
      * @param data
      */
     public void fireSystemEvent(SystemJobEventName eventName) {
-        fireEvent(eventName, Optional.empty());
+        fireRawSystemEvent(eventName, null);
     }
 
     /**
@@ -604,7 +1363,26 @@ public class Job<T> implements RunnableFuture<T> {
      * @param data
      */
     public void fireSystemEvent(SystemJobEventName eventName, Optional data) {
-        fireEvent(eventName, data, listeners.get(eventName), false);
+        fireRawSystemEvent(eventName, data.orElse(null));
+    }
+
+    /**
+     * Fire a system event, with data as is. Data is wrapped only for listeners
+     * that are not {@link com.github.laim0nas100.jobsystem.events.RawJobEventListener raw}.
+     *
+     * @param eventName
+     * @param payload event data, null if none
+     */
+    public void fireRawSystemEvent(SystemJobEventName eventName, Object payload) {
+        JobEventListener[] array = listeners().getSystem(eventName);
+        int event = eventName.ordinal();
+        for (JobEventListener listener : array) {
+            try {
+                listener.onRawEvent(this, event, payload);
+            } catch (Throwable th) {
+                onExceptionalEvent(th);
+            }
+        }
     }
 
     /**
@@ -622,16 +1400,33 @@ public class Job<T> implements RunnableFuture<T> {
                 listener.onEvent(this, classifier, data);
             } catch (Throwable th) {
                 if (!ignore) {
-                    List<JobEventListener> onExcpetionalEvent = listeners.get(SystemJobEventName.ON_EXCEPTIONAL_EVENT);
-                    state.setFlag(JobState.EXCEPTIONAL_EVENT);
-                    if (onExcpetionalEvent != null) {
-                        fireEvent(SystemJobEventName.ON_EXCEPTIONAL_EVENT, Optional.of(th), onExcpetionalEvent, true);
-                    }
+                    onExceptionalEvent(th);
                 }
             }
         }
     }
 
+    /**
+     * Listener threw an exception, fire
+     * {@link SystemJobEventName#ON_EXCEPTIONAL_EVENT} ignoring exceptions.
+     *
+     * @param th
+     */
+    protected void onExceptionalEvent(Throwable th) {
+        setFlag(JobState.EXCEPTIONAL_EVENT);
+        JobEventListener[] array = listeners().getSystem(SystemJobEventName.ON_EXCEPTIONAL_EVENT);
+        if (array.length == 0) {
+            return;
+        }
+        int event = SystemJobEventName.ON_EXCEPTIONAL_EVENT.ordinal();
+        for (JobEventListener listener : array) {
+            try {
+                listener.onRawEvent(this, event, th);
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
     public Runnable asRunnable() {
         return this::run;
     }
@@ -1,20 +1,42 @@
 package com.github.laim0nas100.jobsystem;
 
 import java.io.Serializable;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.stream.Stream;
+import com.github.laim0nas100.jobsystem.dependency.Dependency;
+import com.github.laim0nas100.jobsystem.dependency.JobDependency;
+import com.github.laim0nas100.jobsystem.events.EventListeners;
 import com.github.laim0nas100.jobsystem.events.JobEventListener;
+import com.github.laim0nas100.jobsystem.events.JobEventStream;
+import com.github.laim0nas100.jobsystem.events.ListenerMap;
+import com.github.laim0nas100.jobsystem.events.SystemJobDependency;
 import com.github.laim0nas100.jobsystem.events.SystemJobEventName;
 import java.util.concurrent.locks.Condition;
+import java.util.function.ToLongFunction;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -27,22 +49,131 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class JobExecutor {
 
+    /**
+     * What to do with jobs that can never run, when a batch of jobs is
+     * submitted. See {@link Dependencies#findUnrunnable(java.util.Collection)}.
+     */
+    public static enum GraphCheck {
+        /**
+         * Don't check, such jobs wait forever.
+         */
+        NONE,
+        /**
+         * Reject the whole batch with {@link IllegalArgumentException}.
+         */
+        REJECT,
+        /**
+         * Discard such jobs instead of submitting them, they fire
+         * {@link SystemJobEventName#ON_DISCARDED}.
+         */
+        DISCARD
+    }
+
     protected Executor exe;
 
     protected boolean isShutdown = false;
-    protected Collection<Job> jobs = new ConcurrentLinkedDeque<>();
+    /**
+     * Waiting jobs and scan state, jobs are assigned to shards by their hash
+     * code. Only waiting jobs are scanned, every shard is scanned separately.
+     */
+    protected final Shard[] shards;
+    /**
+     * Jobs that were scheduled, but not yet executed.
+     */
+    protected final JobSet scheduledJobs = new JobSet();
+    /**
+     * Jobs that are executing.
+     */
+    protected final JobSet runningJobs = new JobSet();
+    /**
+     * Count of waiting, scheduled and running jobs. Only changed by
+     * {@link #add(Job, List)} and {@link #remove(Job)}, not by moves between
+     * job sets, so emptiness is told by it and never by the sets.
+     */
+    protected final AtomicInteger jobCount = new AtomicInteger(0);
 
-    protected JobEventListener rescanJobs = (j, c, d) -> addScanRequest();
+    protected JobEventListener rescanJobs = JobEventListener.raw((j, e, p) -> addScanRequest());
+    protected JobEventListener jobExecuting = JobEventListener.raw((j, e, p) -> {
+        if (!move(j, scheduledJobs, runningJobs)) {
+            move(j, shardOf(j).jobs, runningJobs); // was not scheduled by this executor
+        }
+    });
+    protected JobEventListener jobReturned = JobEventListener.raw((j, e, p) -> {
+        if (!move(j, runningJobs, shardOf(j).jobs)) {
+            move(j, scheduledJobs, shardOf(j).jobs);
+        }
+    });
+    protected JobEventListener deadlineCheck = JobEventListener.raw((j, e, p) -> checkDeadline(j));
+    protected JobEventListener startTimeout = JobEventListener.raw((j, e, p) -> startTimeout(j));
+    protected JobEventListener recheckJob = JobEventListener.raw((j, e, p) -> recheck(j, SystemJobEventName.of(e)));
+    protected JobEventListener recheckDependents = JobEventListener.raw((j, e, p) -> recheckDependents(j, SystemJobEventName.of(e)));
+    protected final AtomicReference<JobEventStream[]> eventStreams = new AtomicReference<>(new JobEventStream[0]);
+    protected JobEventListener publishEvent = JobEventListener.raw((j, e, p) -> {
+        for (JobEventStream stream : eventStreams.get()) {
+            stream.publish(j, e, p);
+        }
+    });
     protected final Map<Serializable, List<JobEventListener>> jobExecutorProvidedListeners;
+    /**
+     * Listeners of jobs that have none of their own, so such jobs don't keep a
+     * copy of executor listeners each.
+     */
+    protected final EventListeners sharedListeners = new EventListeners();
 
     protected final ReentrantLock lock = new ReentrantLock();
     protected final Condition waiter = lock.newCondition();
 
-    protected final AtomicInteger scanRequest = new AtomicInteger(0);
-    protected final AtomicInteger inScan = new AtomicInteger(0);
     protected final int rescanRequestThrottle;
     protected final int rescanThrottle;
 
+    /**
+     * Whether {@link JobDependency} edges are indexed in reverse (job to its
+     * dependents), so that a job event only re-checks its direct dependents.
+     */
+    protected final boolean indexed;
+    /**
+     * How many jobs a worker can run in a row, when a finished job makes
+     * another one ready. 0 disables inline continuation.
+     */
+    protected volatile int continuationLimit = 0;
+    /**
+     * See {@link #setCancelFanOut(int)}.
+     */
+    protected volatile int cancelFanOut = 0;
+    /**
+     * Ready job a worker will run after the current one, only set while
+     * running a job dispatched with continuation enabled.
+     */
+    protected final ThreadLocal<Continuation> continuation = new ThreadLocal<>();
+    /**
+     * Ready jobs ordered by priority, null when jobs are passed to the executor
+     * as they become ready.
+     */
+    protected volatile PriorityDispatch priorityDispatch;
+    /**
+     * Whether jobs that missed their deadline before being executed are
+     * discarded.
+     */
+    protected volatile boolean discardMissedDeadlines = false;
+    protected final AtomicLong missedBeforeExecute = new AtomicLong(0);
+    protected final AtomicLong missedBeforeDone = new AtomicLong(0);
+    protected final AtomicLong discardedMissedDeadlines = new AtomicLong(0);
+    protected final AtomicLong timedOut = new AtomicLong(0);
+    /**
+     * Origin for deadline keys, so they compare without overflow.
+     */
+    protected final long nanoOrigin = System.nanoTime();
+    protected volatile GraphCheck graphCheck = GraphCheck.NONE;
+    /**
+     * Wakes delayed jobs, {@link TimerWheel#getDefault()} if null.
+     */
+    protected volatile TimerWheel timer;
+    protected final AtomicLong discardedUnrunnable = new AtomicLong(0);
+    /**
+     * Reverse dependency index, only used when {@link #indexed}.
+     */
+    protected final Map<Job, Collection<DependencyEdge>> dependents = new ConcurrentHashMap<>();
+
     /**
      *
      * @param exe Main executor
@@ -58,36 +189,166 @@ public class JobExecutor {
      * @param exe Main executor
      */
     public JobExecutor(int requestThrottle, int rescanThrottle, Executor exe) {
+        this(requestThrottle, rescanThrottle, false, exe);
+    }
+
+    /**
+     * @param requestThrottle how many rescan requests can queue up
+     * @param rescanThrottle how many concurrent rescan jobs can be happening (2
+     * at least)
+     * @param indexed whether to index {@link JobDependency} edges in reverse,
+     * so that a job event only re-checks its direct dependents instead of every
+     * job. Jobs with other dependencies are still polled on every event,
+     * unless the dependency supports {@link Dependency#subscribe}.
+     * @param exe Main executor
+     */
+    public JobExecutor(int requestThrottle, int rescanThrottle, boolean indexed, Executor exe) {
+        this(1, requestThrottle, rescanThrottle, indexed, exe);
+    }
+
+    /**
+     * Indexed job executor on a new work stealing {@link ForkJoinPool}. Jobs
+     * that become ready on a worker are pushed to that worker's own deque and
+     * run last in first out, other workers steal them when idle. Same happens
+     * with any {@link ForkJoinPool} passed as main executor. The pool uses
+     * daemon threads that are released when idle.
+     *
+     * @param parallelism worker count
+     * @return new executor
+     */
+    public static JobExecutor ofWorkStealing(int parallelism) {
+        return new JobExecutor(2, 2, true, new ForkJoinPool(parallelism));
+    }
+
+    /**
+     * Indexed job executor that runs every job and rescan on a new virtual
+     * thread, for jobs that mostly block. Requires Java 21 or newer, see
+     * {@link #isVirtualThreadsSupported()}. Nothing needs to be shut down
+     * besides the job executor itself.
+     *
+     * @return new executor
+     * @throws UnsupportedOperationException when running before Java 21
+     */
+    public static JobExecutor ofVirtualThreads() {
+        return new JobExecutor(2, 2, true, VirtualThreads.newExecutor());
+    }
+
+    /**
+     *
+     * @return whether {@link #ofVirtualThreads()} can be used
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * @param shards how many independently scanned job sets to use (1 to 64),
+     * more than 1 requires indexed
+     * @param requestThrottle how many rescan requests can queue up per shard
+     * @param rescanThrottle how many concurrent rescan jobs can be happening
+     * per shard (2 at least)
+     * @param indexed whether to index {@link JobDependency} edges in reverse
+     * @param exe Main executor
+     */
+    protected JobExecutor(int shards, int requestThrottle, int rescanThrottle, boolean indexed, Executor exe) {
+        if (shards < 1 || shards > 64) {
+            throw new IllegalArgumentException("Shard count must be between 1 and 64, got " + shards);
+        }
+        if (shards > 1 && !indexed) {
+            throw new IllegalArgumentException("Multiple shards require indexed dependencies");
+        }
         this.exe = exe;
         this.rescanRequestThrottle = Math.max(2, requestThrottle);
         this.rescanThrottle = Math.max(2, rescanThrottle);
-        this.jobExecutorProvidedListeners = defaultListenerMap();
+        this.indexed = indexed;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i);
+        }
+        this.jobExecutorProvidedListeners = new ListenerMap(defaultListenerMap());
+        this.sharedListeners.assignJobExecutorMap(jobExecutorProvidedListeners);
     }
 
     protected Map<Serializable, List<JobEventListener>> defaultListenerMap() {
         Map<Serializable, List<JobEventListener>> map = new HashMap<>();
-        List<JobEventListener> listFailed = new ArrayList<>(1);
+        if (indexed) {
+            for (SystemJobEventName event : SystemJobEventName.values()) {
+                List<JobEventListener> list = new ArrayList<>(2);
+                list.add(publishEvent); // before the job is removed, so streams have it once the executor is empty
+                switch (event) {
+                    case ON_DONE:
+                    case ON_FAILED_TO_START: {
+                        list.add(jobReturned);
+                        list.add(recheckJob);
+                        break;
+                    }
+                    case ON_CANCEL: {
+                        list.add(recheckJob);
+                        break;
+                    }
+                    case ON_EXECUTE: {
+                        list.add(deadlineCheck);
+                        list.add(startTimeout);
+                        list.add(jobExecuting);
+                        list.add(recheckDependents);
+                        break;
+                    }
+                    case ON_ATTEMPTED: {
+                        list.add(deadlineCheck);
+                        break;
+                    }
+                    case ON_DISCARDED:
+                    case ON_DEADLINE_MISSED:
+                    case ON_RETRY:
+                    case ON_TIMEOUT:
+                    case ON_EXCEPTIONAL_EVENT: {
+                        list.add(recheckDependents);
+                        break;
+                    }
+                }
+                map.put(event, list);
+            }
+            return map;
+        }
+        List<JobEventListener> listExecute = new ArrayList<>(3);
+        listExecute.add(deadlineCheck);
+        listExecute.add(startTimeout);
+        listExecute.add(jobExecuting);
+        List<JobEventListener> listAttempted = new ArrayList<>(1);
+        listAttempted.add(deadlineCheck);
+        List<JobEventListener> listFailed = new ArrayList<>(2);
+        listFailed.add(jobReturned);
         listFailed.add(rescanJobs);
-        List<JobEventListener> listDone = new ArrayList<>(1);
+        List<JobEventListener> listDone = new ArrayList<>(2);
+        listDone.add(jobReturned);
         listDone.add(rescanJobs);
 
+        map.put(SystemJobEventName.ON_EXECUTE, listExecute);
+        map.put(SystemJobEventName.ON_ATTEMPTED, listAttempted);
         map.put(SystemJobEventName.ON_FAILED_TO_START, listFailed);
         map.put(SystemJobEventName.ON_DONE, listDone);
+        for (SystemJobEventName event : SystemJobEventName.values()) {
+            map.computeIfAbsent(event, k -> new ArrayList<>(1)).add(0, publishEvent);
+        }
         return map;
     }
 
     /**
-     * Add job in job list. Does not become scheduled instantly.
+     * Add job in job list. Does not become scheduled instantly. Waiting jobs
+     * are checked in the order they were submitted.
      *
      * @param job
+     * @throws IllegalArgumentException if other job with the same ID is
+     * allready submitted
      */
     public void submit(Job job) {
         if (isShutdown) {
             throw new IllegalStateException("Shutdown was called");
         }
+        rejectDuplicate(job);
         job.executorSubmission(this);
-        jobs.add(job);
-        addScanRequest();
+        add(job);
+        shardOf(job).addScanRequest();
     }
 
     /**
@@ -99,9 +360,15 @@ public class JobExecutor {
         if (isShutdown) {
             throw new IllegalStateException("Shutdown was called");
         }
+        if (graphCheck != GraphCheck.NONE) {
+            List<Job> jobs = new ArrayList<>();
+            iter.forEach(jobs::add);
+            iter = checkGraph(jobs);
+        }
         for (Job job : iter) {
+            rejectDuplicate(job);
             job.executorSubmission(this);
-            jobs.add(job);
+            add(job);
         }
         addScanRequest();
     }
@@ -112,177 +379,1041 @@ public class JobExecutor {
      * @param jobArray
      */
     public void submitAll(Job... jobArray) {
+        submitAll(Arrays.asList(jobArray));
+    }
+
+    /**
+     * Submits a whole job graph. All jobs and dependency edges are validated
+     * first, so an invalid graph is rejected before any job is submitted. Then
+     * every job is added (and indexed, if {@link #indexed}) and only after
+     * that the initially ready jobs are scheduled in a single batch, without a
+     * scan. Jobs that are not ready are left for one scan request.
+     *
+     * Dependencies on jobs outside of the graph are allowed. Jobs that can
+     * never run are handled by {@link #setGraphCheck(GraphCheck)}.
+     *
+     * @param graph
+     * @throws IllegalArgumentException if a job or dependency is null, a job
+     * depends on itself or is allready scheduled
+     */
+    public void submitGraph(Collection<? extends Job> graph) {
         if (isShutdown) {
             throw new IllegalStateException("Shutdown was called");
         }
-        for (Job job : jobArray) {
+        for (Job job : graph) {
+            validate(job);
+            rejectDuplicate(job);
+        }
+        graph = checkGraph(graph);
+        List<Job> batch = new ArrayList<>();
+        boolean waiting = false;
+        for (Job job : graph) {
             job.executorSubmission(this);
-            jobs.add(job);
+            int size = batch.size();
+            add(job, batch);
+            waiting |= batch.size() == size;
+        }
+        scheduleAll(batch);
+        if (waiting) {
+            addScanRequest();
         }
-        addScanRequest();
     }
 
-    public Map<Serializable, List<JobEventListener>> getExecutorJobListeners() {
-        return jobExecutorProvidedListeners;
+    /**
+     * Applies {@link #graphCheck} to a batch of jobs.
+     *
+     * @param jobs
+     * @return jobs to submit
+     */
+    protected Collection<? extends Job> checkGraph(Collection<? extends Job> jobs) {
+        GraphCheck check = graphCheck;
+        if (check == GraphCheck.NONE) {
+            return jobs;
+        }
+        List<Job> unrunnable = Dependencies.findUnrunnable(jobs);
+        if (unrunnable.isEmpty()) {
+            return jobs;
+        }
+        if (check == GraphCheck.REJECT) {
+            StringBuilder ids = new StringBuilder();
+            for (int i = 0; i < unrunnable.size() && i < 10; i++) {
+                ids.append(i == 0 ? "" : ", ").append(unrunnable.get(i).getID());
+            }
+            throw new IllegalArgumentException(unrunnable.size() + " jobs are in a dependency cycle or depend on unsubmitted jobs: "
+                    + ids + (unrunnable.size() > 10 ? ", ..." : ""));
+        }
+        Set<Job> dead = new HashSet<>(unrunnable);
+        List<Job> runnable = new ArrayList<>(jobs.size() - dead.size());
+        for (Job job : jobs) {
+            if (!dead.contains(job)) {
+                runnable.add(job);
+            }
+        }
+        for (Job job : unrunnable) {
+            job.executorSubmission(this);
+            discardedUnrunnable.incrementAndGet();
+            discard(job);
+        }
+        return runnable;
     }
 
-    protected void addScanRequest() {
-        if (scanRequest.incrementAndGet() <= rescanRequestThrottle) {
-            try {
-                exe.execute(this::rescanJobsIter);
-            } catch (Throwable ex) {
-                rescanJobsIter();
-            }
+    /**
+     * Submitting the same job again is ignored, but a different job with the
+     * same ID would be mistaken for the tracked one.
+     *
+     * @param job
+     * @throws IllegalArgumentException if other job with the same ID is
+     * tracked
+     */
+    protected void rejectDuplicate(Job job) {
+        Job tracked = tracked(job);
+        if (tracked != null && tracked != job) {
+            throw new IllegalArgumentException("Other job with ID " + job.getID() + " is allready submitted");
+        }
+    }
 
-        } else {
-            scanRequest.decrementAndGet();
+    /**
+     *
+     * @param job
+     * @return waiting, scheduled or running job with the same ID, or null
+     */
+    protected Job tracked(Job job) {
+        Shard shard = shardOf(job);
+        Job tracked = shard.jobs.get(job);
+        if (tracked == null) {
+            tracked = scheduledJobs.get(job);
+        }
+        if (tracked == null) {
+            tracked = runningJobs.get(job);
+        }
+        if (tracked == null) {
+            tracked = shard.jobs.get(job); // moved back from running meanwhile
+        }
+        return tracked;
+    }
+
+    private static void validate(Job job) {
+        if (job == null) {
+            throw new IllegalArgumentException("Null job in graph");
+        }
+        if (job.isScheduled() || job.isRunning()) {
+            throw new IllegalArgumentException("Job " + job.getID() + " is allready scheduled");
+        }
+        if (job.doBefore == null) {
+            return;
+        }
+        for (Dependency dep : (List<Dependency>) job.doBefore) {
+            if (dep == null) {
+                throw new IllegalArgumentException("Null dependency of job " + job.getID());
+            }
+            if (dep instanceof JobDependency) {
+                Job upstream = ((JobDependency) dep).getJob();
+                if (upstream == null) {
+                    throw new IllegalArgumentException("Dependency of job " + job.getID() + " has no job");
+                }
+                if (upstream == job) {
+                    throw new IllegalArgumentException("Job " + job.getID() + " depends on itself");
+                }
+            }
         }
+    }
 
+    /**
+     * Listeners every submitted job gets. Changes are seen by jobs that are
+     * allready submitted too.
+     *
+     * @return
+     */
+    public Map<Serializable, List<JobEventListener>> getExecutorJobListeners() {
+        return jobExecutorProvidedListeners;
     }
 
     /**
-     * Rescans after a job becomes done or a new job is submitted. Schedule
-     * ready jobs and discard discardable. If no more jobs are left, completes
-     * emptiness waiter.
      *
-     * Doesn't run automatically. If you are using special dependencies, for
-     * example "run only if current day is Christmas", it will not check every
-     * day. It's the responsibility of the user to rescan periodically if such
-     * dependencies are used.
+     * @return executor listeners, used by jobs without listeners of their own
      */
-    public void rescanJobs() {
-        addScanRequest();
+    public EventListeners getSharedListeners() {
+        return sharedListeners;
+    }
+
+    /**
+     * Publish system events of every job of this executor to given stream,
+     * before the executor's own listeners and the job's listeners, so every
+     * event of a job is published before the executor lets go of the job.
+     *
+     * @param stream
+     * @return this
+     */
+    public JobExecutor addEventStream(JobEventStream stream) {
+        Objects.requireNonNull(stream);
+        eventStreams.updateAndGet(array -> {
+            JobEventStream[] added = Arrays.copyOf(array, array.length + 1);
+            added[array.length] = stream;
+            return added;
+        });
+        return this;
     }
 
-    private void rescanJobsIter() {
-        int scanning = inScan.incrementAndGet();
-        int request = scanRequest.decrementAndGet();
+    /**
+     * Stop publishing events to given stream.
+     *
+     * @param stream
+     * @return this
+     */
+    public JobExecutor removeEventStream(JobEventStream stream) {
+        eventStreams.updateAndGet(array -> Stream.of(array).filter(s -> s != stream).toArray(JobEventStream[]::new));
+        return this;
+    }
+
+    /**
+     * Add job to the job list and, if indexed, to the reverse dependency index.
+     * The index is updated before the job is checked, so an upstream job
+     * finishing in between is not missed.
+     *
+     * Edges that settle once their job becomes done (see
+     * {@link SystemJobDependency#isSettledOnDone()}) are counted down instead
+     * of polled. A job that only has such edges is scheduled as soon as its
+     * count reaches zero, without being checked by a scan.
+     *
+     * @param job
+     */
+    protected void add(Job job) {
+        add(job, null);
+    }
 
+    /**
+     * Add job, but collect it in given batch instead of scheduling, if it is
+     * ready straight away.
+     *
+     * @param job
+     * @param batch jobs to pass to {@link #scheduleAll(java.util.List)}, or
+     * null to schedule right away
+     */
+    protected void add(Job job, List<Job> batch) {
+        Shard shard = shardOf(job);
+        Job tracked;
+        job.lockMembership();
         try {
-            if (scanning > 1) {
-                if (scanning > rescanThrottle && request > 1) {
-                    return;
+            tracked = scheduledJobs.get(job);
+            if (tracked == null) {
+                tracked = runningJobs.get(job);
+            }
+            if (tracked == null) {
+                if (shard.jobs.add(job)) {
+                    jobCount.incrementAndGet();
+                } else {
+                    tracked = shard.jobs.get(job);
                 }
-                LockSupport.parkNanos(1L << Math.min(scanning, 20)); // reduce congestion
             }
-
-            Iterator<Job> iterator = jobs.iterator();
-            while (iterator.hasNext()) {
-                Job job = iterator.next();
-                if (job == null) {
-                    continue;
+        } finally {
+            job.unlockMembership();
+        }
+        if (tracked != null && tracked != job) { // raced with other submission
+            throw new IllegalArgumentException("Other job with ID " + job.getID() + " is allready submitted");
+        }
+        if (tracked != null && tracked != shard.jobs.get(job)) {
+            return; // allready scheduled or running
+        }
+        boolean delayed = job.isDelayed();
+        if (delayed) {
+            getTimer().schedule(() -> wake(job), job.getNotBefore() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        if (job.hasDeadline() && !job.isPastDeadline()) {
+            getTimer().schedule(() -> deadlineReached(job), job.getDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        if (!indexed) {
+            if (batch != null && !delayed && (job.doBefore == null || job.doBefore.isEmpty())) {
+                batch.add(job);
+            } else if (job.doBefore != null) {
+                for (Dependency dep : (List<Dependency>) job.doBefore) {
+                    dep.subscribe(job, () -> wake(job)); // rescan when changed outside of job events
                 }
-                if (!job.isPossibleToRun()) {
-                    if (job.state.trySetFlag(JobState.DISCARDED)) {
-                        iterator.remove();
-                        job.fireSystemEvent(SystemJobEventName.ON_DISCARDED);
-                    } else { // job was allready discarded but reinserted so don't fire event again
-                        if (job.state.trySetFlag(JobState.REPEATED_DISCARD)) { // thread safety
-                            iterator.remove();
-                            job.state.clearFlag(JobState.REPEATED_DISCARD);
-                        }
-                    }
-                    if (job.isAborted()) {// cancelled and not executed
-                        job.fireSystemEvent(SystemJobEventName.ON_ABORTED);
-                    }
-                    if (job.state.trySetFlag(JobState.DONE)) {
-                        job.fireSystemEvent(SystemJobEventName.ON_DONE);
+            }
+            return;
+        }
+        boolean polled = false;
+        boolean checked = false;
+        Countdown countdown = null;
+        List<DependencyEdge> counted = null;
+        if (job.doBefore != null) {
+            for (Dependency dep : (List<Dependency>) job.doBefore) {
+                if (!(dep instanceof JobDependency)) {
+                    if (dep.subscribe(job, () -> wake(job))) {
+                        checked = true;
+                    } else {
+                        polled = true;
                     }
-                } else if (!job.isExecuted() && !job.isScheduled() && job.canRun()) {
-                    if (job.state.trySetFlag(JobState.SCHEDULED)) {
-                        job.fireSystemEvent(SystemJobEventName.ON_SCHEDULED);
-                        try {
-                            //we dont control executor, so just in case it is bad
-                            exe.execute(job);
-                        } catch (Throwable t) {
-                        }
+                    continue;
+                }
+                DependencyEdge edge = new DependencyEdge(job, (JobDependency) dep);
+                if (edge.isCountdown()) {
+                    if (countdown == null) {
+                        countdown = new Countdown();
+                        counted = new ArrayList<>();
                     }
+                    edge.countdown = countdown;
+                } else {
+                    checked = true;
+                }
+                if (index(edge) && edge.countdown != null) {
+                    countdown.incrementAndGet();
+                    counted.add(edge);
                 }
             }
-        } finally {
-            scanning = inScan.decrementAndGet();
         }
+        if (polled) {
+            shard.polledJobs.add(job);
+        }
+        boolean pure = !polled && !checked && !delayed;
+        if (countdown == null) {
+            ready(job, pure, batch);
+            return;
+        }
+        countdown.pure = pure;
+        for (DependencyEdge edge : counted) {
+            if (edge.upstream.isDone()) {
+                settle(edge);
+            }
+        }
+        if (countdown.decrementAndGet() == 0) { // release the submission guard
+            ready(job, pure, batch);
+        } else if (!pure) {
+            shard.dirtyJobs.add(job);
+        }
+    }
 
-        int sr = scanRequest.get();
-
-        if (scanning == 0) {
-            if (sr > 0 && sr < rescanRequestThrottle) {
-                addScanRequest();
-            } else if (sr == 0 && isEmpty()) {
+    private boolean index(DependencyEdge edge) {
+        boolean[] added = new boolean[1];
+        dependents.compute(edge.upstream, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            added[0] = set.add(edge);
+            return set;
+        });
+        return added[0];
+    }
 
-                try {
-                    lock.lock();
-                    waiter.signalAll();
-                } finally {
-                    lock.unlock();
+    /**
+     * Remove job from the job list and reverse dependency index.
+     *
+     * @param job
+     */
+    protected void remove(Job job) {
+        Shard shard = shardOf(job);
+        job.lockMembership();
+        try {
+            if (shard.jobs.remove(job)) {
+                jobCount.decrementAndGet();
+            }
+        } finally {
+            job.unlockMembership();
+        }
+        if (!indexed) {
+            return;
+        }
+        shard.polledJobs.remove(job);
+        if (job.doBefore != null) {
+            for (Dependency dep : (List<Dependency>) job.doBefore) {
+                if (dep instanceof JobDependency) {
+                    DependencyEdge edge = new DependencyEdge(job, (JobDependency) dep);
+                    dependents.computeIfPresent(edge.upstream, (k, set) -> {
+                        set.remove(edge);
+                        return set.isEmpty() ? null : set;
+                    });
                 }
-
             }
         }
-
     }
 
     /**
+     * Counted down edge became settled. Decrements the dependent's count or, if
+     * the edge became impossible, marks the dependent for discarding.
      *
-     * @return true if no more jobs left.
+     * @param edge
+     * @return mask of shards that have new jobs to check
      */
-    public boolean isEmpty() {
-        for (Job j : jobs) {
-            if (j != null) {
-                return false;
+    protected long settle(DependencyEdge edge) {
+        if (!edge.trySettle()) {
+            return 0;
+        }
+        Job job = edge.dependent;
+        if (edge.dependency.isCompleted(job)) {
+            if (edge.countdown.decrementAndGet() == 0) {
+                return ready(job, edge.countdown.pure);
             }
+        } else if (!edge.dependency.isPossible()) {
+            return markDirty(job);
         }
-        return true;
-
+        return 0;
     }
 
     /**
+     * All counted down edges of a job are completed. A job with no other
+     * dependencies is scheduled straight away, otherwise it is checked in the
+     * next scan.
      *
-     * @return Current non-discarded Job stream.
+     * @param job
+     * @param pure whether the job only has counted down dependencies
+     * @return mask of shards that have new jobs to check
      */
-    public Stream<Job> getJobStream() {
-        return jobs.stream();
+    protected long ready(Job job, boolean pure) {
+        if (pure && job.isPossibleToRun()) {
+            if (!job.isExecuted()) {
+                schedule(job);
+            }
+            return 0;
+        }
+        return markDirty(job);
+    }
+
+    private void ready(Job job, boolean pure, List<Job> batch) {
+        if (batch != null && pure) {
+            batch.add(job);
+        } else {
+            ready(job, pure);
+        }
     }
 
     /**
-     * Only prevents new jobs from being submitted and completes termination
-     * waiter.
+     * Marks job for checking in the next scan of its shard.
+     *
+     * @param job
+     * @return mask of the job's shard
      */
-    public void shutdown() {
-        isShutdown = true;
-        rescanJobs();
+    protected long markDirty(Job job) {
+        Shard shard = shardOf(job);
+        shard.dirtyJobs.add(job);
+        return shard.mask;
     }
 
     /**
-     * Wait a given time for job list to be empty
+     * Marks given job and its direct dependents for checking. Jobs with polled
+     * dependencies are checked as well, since any event can change them. Falls
+     * back to {@link #addScanRequest()} when not indexed.
      *
-     * @param time
-     * @param unit
-     * @return
-     * @throws InterruptedException
+     * @param job
+     * @param event
      */
-    public boolean awaitJobEmptiness(long time, TimeUnit unit)
-            throws InterruptedException {
-        if (isEmpty()) {
-            return true;
-        }
-        try {
-            lock.lock();
-
-            if (isEmpty()) {
-                return true;
-            }
+    protected void recheck(Job job, Object event) {
+        if (!indexed) {
             addScanRequest();
-            return waiter.await(time, unit);
-        } finally {
-            lock.unlock();
+            return;
         }
+        wake(markDirty(job) | markDependents(job, event));
     }
 
     /**
-     * If shutdown was fired, then wait for job list to be empty.
+     * Marks direct dependents of given job for checking, or, on
+     * {@link SystemJobEventName#ON_DONE}, settles counted down edges. Falls
+     * back to {@link #addScanRequest()} when not indexed.
      *
-     * @param time
+     * @param job
+     * @param event
+     */
+    protected void recheckDependents(Job job, Object event) {
+        if (!indexed) {
+            addScanRequest();
+            return;
+        }
+        wake(markDependents(job, event));
+    }
+
+    private long markDependents(Job job, Object event) {
+        long mask = 0;
+        Collection<DependencyEdge> edges = dependents.get(job);
+        if (edges != null) {
+            for (DependencyEdge edge : edges) {
+                if (edge.countdown == null) {
+                    mask |= markDirty(edge.dependent);
+                } else if (event == SystemJobEventName.ON_DONE) {
+                    mask |= settle(edge);
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Subscribed dependency of given job has changed, or its delay has
+     * passed.
+     *
+     * @param job
+     */
+    protected void wake(Job job) {
+        if (!indexed) {
+            addScanRequest();
+            return;
+        }
+        wake(markDirty(job));
+    }
+
+    /**
+     * Requests a scan of given shards and every shard that has polled jobs.
+     *
+     * @param mask
+     */
+    protected void wake(long mask) {
+        for (Shard shard : shards) {
+            if (!shard.polledJobs.isEmpty()) {
+                shard.polledScanRequest.set(true);
+                mask |= shard.mask;
+            }
+            if ((mask & shard.mask) != 0) {
+                shard.addScanRequest();
+            }
+        }
+    }
+
+    /**
+     *
+     * @param job
+     * @return shard that holds given job while it is waiting
+     */
+    protected Shard shardOf(Job job) {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        int h = job.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    /**
+     * Requests a scan of every shard.
+     */
+    protected void addScanRequest() {
+        for (Shard shard : shards) {
+            shard.addScanRequest();
+        }
+    }
+
+    /**
+     * Rescans after a job becomes done or a new job is submitted. Schedule
+     * ready jobs and discard discardable. If no more jobs are left, completes
+     * emptiness waiter.
+     *
+     * Doesn't run automatically. If you are using special dependencies, for
+     * example "run only if current day is Christmas", it will not check every
+     * day. It's the responsibility of the user to rescan periodically if such
+     * dependencies are used, unless they notify the executor themselves (see
+     * {@link com.github.laim0nas100.jobsystem.dependency.ObservableDependency}).
+     *
+     * When indexed, this checks every job, not only the ones affected by job
+     * events, so it also picks up dependencies on jobs that were submitted to
+     * a different executor.
+     */
+    public void rescanJobs() {
+        for (Shard shard : shards) {
+            if (indexed) {
+                shard.fullScanRequest.set(true);
+            }
+            shard.addScanRequest();
+        }
+    }
+
+    /**
+     * Schedule the job if it is ready, discard it if it is not possible to
+     * run. Only one thread checks a job at a time, so reserving dependencies
+     * (see {@link Dependency#isReserving()}) are not unreserved by one check
+     * while other check schedules the job. Checks requested in the meantime
+     * are done by that thread after it's done.
+     *
+     * @param job
+     */
+    protected void checkJob(Job job) {
+        job.setFlag(JobState.RECHECK);
+        while (job.trySetFlag(JobState.CHECKING)) {
+            try {
+                while (job.tryClearFlag(JobState.RECHECK)) {
+                    checkJobNow(job);
+                }
+            } finally {
+                job.clearFlag(JobState.CHECKING);
+            }
+            if (!job.hasFlag(JobState.RECHECK)) {
+                return;
+            }
+        }
+    }
+
+    private void checkJobNow(Job job) {
+        boolean missed = checkDeadline(job);
+        if (!job.isPossibleToRun()) {
+            discard(job);
+        } else if (missed && discardMissedDeadlines && !job.isExecuted() && !job.isScheduled()) {
+            discardedMissedDeadlines.incrementAndGet();
+            discard(job);
+        } else if (!job.isExecuted() && !job.isScheduled() && job.canRun()) {
+            schedule(job);
+        }
+    }
+
+    /**
+     * Remove the job and mark it as discarded and done.
+     *
+     * @param job
+     */
+    protected void discard(Job job) {
+        if (job.trySetFlag(JobState.DISCARDED)) {
+            remove(job);
+            job.fireSystemEvent(SystemJobEventName.ON_DISCARDED);
+        } else { // job was allready discarded but reinserted so don't fire event again
+            if (job.trySetFlag(JobState.REPEATED_DISCARD)) { // thread safety
+                remove(job);
+                job.clearFlag(JobState.REPEATED_DISCARD);
+            }
+        }
+        if (job.isAborted()) {// cancelled and not executed
+            job.fireSystemEvent(SystemJobEventName.ON_ABORTED);
+        }
+        if (job.trySetFlag(JobState.DONE)) {
+            job.fireSystemEvent(SystemJobEventName.ON_DONE);
+        }
+    }
+
+    /**
+     * Called by the timer when job deadline passes, so a waiting job misses
+     * it on time, not on its next scan. A job that is still waiting is checked
+     * again, to be discarded if {@link #discardMissedDeadlines}.
+     *
+     * @param job
+     */
+    protected void deadlineReached(Job job) {
+        if (checkDeadline(job) && !job.isDone() && !job.isExecuted() && !job.isScheduled()) {
+            wake(job);
+        }
+    }
+
+    /**
+     * Fire {@link SystemJobEventName#ON_DEADLINE_MISSED} once, if job deadline
+     * has passed before it was executed or done. Checked when the deadline
+     * passes, when a job is scanned, taken from the dispatch queue, executed
+     * and attempted.
+     *
+     * @param job
+     * @return whether the deadline was missed, now or before
+     */
+    protected boolean checkDeadline(Job job) {
+        if (!job.hasDeadline()) {
+            return false;
+        }
+        if (job.isDeadlineMissed()) {
+            return true;
+        }
+        if (job.isDone() || !job.isPastDeadline()) {
+            return false;
+        }
+        if (job.trySetFlag(JobState.DEADLINE_MISSED)) {
+            boolean executed = job.isExecuted();
+            (executed ? missedBeforeDone : missedBeforeExecute).incrementAndGet();
+            SystemJobEventName missed = executed ? SystemJobEventName.ON_DONE : SystemJobEventName.ON_EXECUTE;
+            job.fireRawSystemEvent(SystemJobEventName.ON_DEADLINE_MISSED, missed);
+        }
+        return true;
+    }
+
+    /**
+     * Mark the job as scheduled, move it out of waiting jobs and pass it to the
+     * main executor.
+     *
+     * @param job
+     */
+    protected void schedule(Job job) {
+        if (job.trySetFlag(JobState.SCHEDULED)) {
+            move(job, shardOf(job).jobs, scheduledJobs);
+            job.fireSystemEvent(SystemJobEventName.ON_SCHEDULED);
+            dispatch(job);
+        }
+    }
+
+    /**
+     * Schedule jobs that have no dependencies left, passing them to the
+     * executor together. Jobs that can't run or missed their deadline are
+     * checked as usual.
+     *
+     * @param batch
+     */
+    protected void scheduleAll(List<Job> batch) {
+        List<Job> scheduled = new ArrayList<>(batch.size());
+        for (Job job : batch) {
+            if (!job.isPossibleToRun() || job.isExecuted() || checkDeadline(job)) {
+                checkJob(job);
+            } else if (job.trySetFlag(JobState.SCHEDULED)) {
+                move(job, shardOf(job).jobs, scheduledJobs);
+                job.fireSystemEvent(SystemJobEventName.ON_SCHEDULED);
+                scheduled.add(job);
+            }
+        }
+        PriorityDispatch prio = priorityDispatch;
+        if (prio != null) {
+            prio.addAll(scheduled);
+            return;
+        }
+        for (Job job : scheduled) {
+            dispatch(job);
+        }
+    }
+
+    /**
+     * Start timing the job, if it has a timeout.
+     *
+     * @param job
+     */
+    protected void startTimeout(Job job) {
+        if (job.hasTimeout()) {
+            job.timeoutTimer = getTimer().schedule(() -> timeout(job), job.getTimeout(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Job ran out of time. Fires {@link SystemJobEventName#ON_TIMEOUT} and
+     * cancels the job with interrupt, but not its child jobs, dependents find
+     * out from the job becoming done.
+     *
+     * @param job
+     */
+    protected void timeout(Job job) {
+        if (job.isDone() || !job.trySetFlag(JobState.TIMED_OUT)) {
+            return;
+        }
+        timedOut.incrementAndGet();
+        job.fireSystemEvent(SystemJobEventName.ON_TIMEOUT);
+        job.cancelInner(true, false, job);
+    }
+
+    /**
+     * Dispatch a job that failed and is retried, after given delay.
+     *
+     * @param job
+     * @param delayNanos
+     * @return timeout that dispatches the job
+     */
+    protected TimerWheel.Timeout retry(Job job, long delayNanos) {
+        return getTimer().schedule(() -> dispatch(job), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Pass scheduled job to the executor. With inline continuation enabled, the
+     * first job made ready after the task of the job a worker is running has
+     * returned is kept and run by the same worker afterwards. Jobs dispatched
+     * while the task is still running (submitted by it, for example) are
+     * forked, because the task could be waiting for them.
+     *
+     * @param job
+     */
+    protected void dispatch(Job job) {
+        PriorityDispatch prio = priorityDispatch;
+        if (prio != null) {
+            prio.add(job);
+            return;
+        }
+        if (continuationLimit > 0) {
+            Continuation cont = continuation.get();
+            if (cont != null && cont.returned && cont.next == null) {
+                cont.next = job;
+                return;
+            }
+        }
+        fork(continuationLimit > 0 ? new Continuation(job) : job);
+    }
+
+    /**
+     * Run a task on the main executor.
+     *
+     * @param run
+     * @return whether the executor accepted it
+     */
+    protected boolean fork(Runnable run) {
+        try {
+            //we dont control executor, so just in case it is bad
+            if (exe instanceof ForkJoinPool && ForkJoinTask.getPool() == exe) {
+                // push to current worker's deque, idle workers steal from it
+                ForkJoinTask.adapt(run).fork();
+            } else {
+                exe.execute(run);
+            }
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    /**
+     * Called by a job on the thread that completes it, before completion
+     * events are fired.
+     *
+     * @param job
+     */
+    protected void taskReturned(Job job) {
+        if (continuationLimit > 0) {
+            Continuation cont = continuation.get();
+            if (cont != null && cont.current == job) {
+                cont.returned = true;
+            }
+        }
+    }
+
+    /**
+     * Lets cancellation of a large graph continue on the main executor. When
+     * more than given amount of cancelled jobs wait for their child jobs to be
+     * cancelled, half of them are cancelled by another task, so
+     * {@link Job#cancel()} can return before every child job is cancelled.
+     *
+     * @param threshold worklist size to split at, 0 disables
+     * @return this
+     */
+    public JobExecutor setCancelFanOut(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Negative fan out threshold " + threshold);
+        }
+        this.cancelFanOut = threshold;
+        return this;
+    }
+
+    public int getCancelFanOut() {
+        return cancelFanOut;
+    }
+
+    /**
+     * Enables inline continuation. When a finished job makes jobs ready, the
+     * same worker runs the first of them without going through the executor,
+     * up to given limit of jobs in a row. Other ready jobs are dispatched as
+     * usual. Jobs run in a loop, so the stack doesn't grow.
+     *
+     * @param limit how many jobs can a worker run in a row, 0 disables
+     * @return this
+     */
+    public JobExecutor setContinuationLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative continuation limit " + limit);
+        }
+        this.continuationLimit = limit;
+        return this;
+    }
+
+    public int getContinuationLimit() {
+        return continuationLimit;
+    }
+
+    /**
+     * Enables dispatch by priority. Ready jobs are put in a priority queue and
+     * at most given amount of them are passed to the executor at a time, so
+     * set it to the executor's parallelism. Waiting ready jobs age: a job with
+     * priority one higher is treated as if it became ready one aging quantum
+     * earlier, so lower priority jobs are not starved. Overrides inline
+     * continuation.
+     *
+     * @param maxInFlight how many jobs can be passed to the executor at a time
+     * @param agingQuantum aging quantum, 0 for strict priority
+     * @param unit aging quantum unit
+     * @return this
+     */
+    public JobExecutor setPriorityDispatch(int maxInFlight, long agingQuantum, TimeUnit unit) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be positive, got " + maxInFlight);
+        }
+        if (agingQuantum < 0) {
+            throw new IllegalArgumentException("Negative aging quantum " + agingQuantum);
+        }
+        long agingNanos = unit.toNanos(agingQuantum);
+        this.priorityDispatch = new PriorityDispatch(maxInFlight, job -> agingNanos == 0
+                ? -job.getPriority()
+                : System.nanoTime() - job.getPriority() * agingNanos);
+        return this;
+    }
+
+    /**
+     * Enables earliest deadline first dispatch. Ready jobs are put in a queue
+     * ordered by deadline, jobs without one go last in FIFO order. At most
+     * given amount of them are passed to the executor at a time, so set it to
+     * the executor's parallelism. Overrides inline continuation.
+     *
+     * @param maxInFlight how many jobs can be passed to the executor at a time
+     * @return this
+     */
+    public JobExecutor setDeadlineDispatch(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be positive, got " + maxInFlight);
+        }
+        this.priorityDispatch = new PriorityDispatch(maxInFlight, job -> job.hasDeadline()
+                ? job.getDeadline() - nanoOrigin
+                : Long.MAX_VALUE);
+        return this;
+    }
+
+    /**
+     * Whether to discard jobs that missed their deadline before being
+     * executed, instead of running them late.
+     *
+     * @param discard
+     * @return this
+     */
+    public JobExecutor setDiscardMissedDeadlines(boolean discard) {
+        this.discardMissedDeadlines = discard;
+        return this;
+    }
+
+    /**
+     * Set timer that wakes delayed jobs.
+     *
+     * @param timer
+     * @return this
+     */
+    public JobExecutor setTimer(TimerWheel timer) {
+        this.timer = Objects.requireNonNull(timer);
+        return this;
+    }
+
+    public TimerWheel getTimer() {
+        TimerWheel t = timer;
+        return t != null ? t : TimerWheel.getDefault();
+    }
+
+    /**
+     * Check batch submissions ({@link #submitAll(java.lang.Iterable)} and
+     * {@link #submitGraph(java.util.Collection)}) for jobs that can never run.
+     * Single job submission is not checked, since its dependencies might be
+     * submitted later.
+     *
+     * @param check
+     * @return this
+     */
+    public JobExecutor setGraphCheck(GraphCheck check) {
+        this.graphCheck = Objects.requireNonNull(check);
+        return this;
+    }
+
+    public GraphCheck getGraphCheck() {
+        return graphCheck;
+    }
+
+    /**
+     *
+     * @return how many jobs were discarded by {@link GraphCheck#DISCARD}
+     */
+    public long getDiscardedUnrunnable() {
+        return discardedUnrunnable.get();
+    }
+
+    /**
+     *
+     * @return how many jobs ran out of time, see
+     * {@link Job#setTimeout(long, java.util.concurrent.TimeUnit)}
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     *
+     * @return how many jobs missed their deadline before being executed
+     */
+    public long getMissedBeforeExecute() {
+        return missedBeforeExecute.get();
+    }
+
+    /**
+     *
+     * @return how many jobs were executed, but missed their deadline before
+     * becoming done
+     */
+    public long getMissedBeforeDone() {
+        return missedBeforeDone.get();
+    }
+
+    /**
+     *
+     * @return how many jobs were discarded after missing their deadline
+     */
+    public long getDiscardedMissedDeadlines() {
+        return discardedMissedDeadlines.get();
+    }
+
+    /**
+     *
+     * @return true if no more jobs left.
+     */
+    public boolean isEmpty() {
+        return jobCount.get() == 0;
+    }
+
+    /**
+     *
+     * @return Current non-discarded Job stream. Waiting jobs first, then
+     * scheduled, then running.
+     */
+    public Stream<Job> getJobStream() {
+        Stream<Job> waiting = Stream.of(shards).flatMap(shard -> shard.jobs.stream());
+        return Stream.concat(waiting, Stream.concat(scheduledJobs.stream(), runningJobs.stream()));
+    }
+
+    /**
+     * Moves job between waiting, scheduled and running jobs. Holds the
+     * membership lock of the job (see {@link Job#lockMembership()}), like
+     * {@link #add(Job, List)} and {@link #remove(Job)} do, so a job that is
+     * being removed is never moved back in and counted twice. Readers don't
+     * take the lock. Adds before removing, so a job is always found by a
+     * reader that looks in the order jobs move (waiting, scheduled, running),
+     * and then in waiting jobs again.
+     *
+     * @param job
+     * @param from
+     * @param to
+     * @return whether the job was moved
+     */
+    protected static boolean move(Job job, Collection<Job> from, Collection<Job> to) {
+        job.lockMembership();
+        try {
+            if (!from.contains(job)) {
+                return false;
+            }
+            to.add(job);
+            from.remove(job);
+            return true;
+        } finally {
+            job.unlockMembership();
+        }
+    }
+
+    /**
+     * Only prevents new jobs from being submitted and completes termination
+     * waiter.
+     */
+    public void shutdown() {
+        isShutdown = true;
+        rescanJobs();
+    }
+
+    /**
+     * Wait a given time for job list to be empty
+     *
+     * @param time
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    public boolean awaitJobEmptiness(long time, TimeUnit unit)
+            throws InterruptedException {
+        if (isEmpty()) {
+            return true;
+        }
+        try {
+            lock.lock();
+
+            if (isEmpty()) {
+                return true;
+            }
+            addScanRequest();
+            return waiter.await(time, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * If shutdown was fired, then wait for job list to be empty.
+     *
+     * @param time
      * @param unit
      * @return
      * @throws InterruptedException
@@ -310,4 +1441,424 @@ public class JobExecutor {
         return awaitTermination(time, unit);
     }
 
+    /**
+     * Waiting jobs with their own scan requests and throttle.
+     */
+    protected class Shard {
+
+        protected final long mask;
+        /**
+         * Jobs waiting for their dependencies, or done jobs waiting to be
+         * removed.
+         */
+        protected final JobSet jobs = new JobSet();
+        /**
+         * Jobs with dependencies that are not {@link JobDependency}, so they
+         * can only be polled. Only used when {@link #indexed}.
+         */
+        protected final Collection<Job> polledJobs = ConcurrentHashMap.newKeySet();
+        /**
+         * Jobs that need to be checked in the next scan. Only used when
+         * {@link #indexed}.
+         */
+        protected final Queue<Job> dirtyJobs = new ConcurrentLinkedQueue<>();
+        protected final AtomicBoolean polledScanRequest = new AtomicBoolean(false);
+        protected final AtomicBoolean fullScanRequest = new AtomicBoolean(false);
+
+        protected final AtomicInteger scanRequest = new AtomicInteger(0);
+        protected final AtomicInteger inScan = new AtomicInteger(0);
+
+        protected Shard(int index) {
+            this.mask = 1L << index;
+        }
+
+        protected void addScanRequest() {
+            // only count requests that are queued, a scan ending now must not wait for one that is not
+            int request;
+            do {
+                request = scanRequest.get();
+                if (request >= rescanRequestThrottle) {
+                    return;
+                }
+            } while (!scanRequest.compareAndSet(request, request + 1));
+            try {
+                exe.execute(this::rescanJobsIter);
+            } catch (Throwable ex) {
+                rescanJobsIter();
+            }
+
+        }
+
+        private void rescanJobsIter() {
+            int scanning = inScan.incrementAndGet();
+            int request = scanRequest.decrementAndGet();
+
+            try {
+                if (scanning > 1) {
+                    if (scanning > rescanThrottle && request > 1) {
+                        return;
+                    }
+                    if (!indexed) {
+                        // indexed scans mostly drain a concurrent queue, so no need to back off
+                        LockSupport.parkNanos(1L << Math.min(scanning, 20)); // reduce congestion
+                    }
+                }
+
+                if (indexed) {
+                    scanIndexed();
+                } else {
+                    scan(jobs);
+                }
+            } finally {
+                scanning = inScan.decrementAndGet();
+            }
+
+            // pending requests are allready queued, the last one completes the waiter
+            if (scanning == 0 && scanRequest.get() == 0 && isEmpty()) {
+                try {
+                    lock.lock();
+                    waiter.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+        }
+
+        private void scan(Collection<Job> toScan) {
+            for (Job job : toScan) {
+                if (job == null) {
+                    continue;
+                }
+                checkJob(job);
+            }
+        }
+
+        private void scanIndexed() {
+            if (fullScanRequest.getAndSet(false)) {
+                polledScanRequest.set(false);
+                scan(jobs);
+            } else if (polledScanRequest.getAndSet(false)) {
+                scan(polledJobs);
+            }
+            Job job;
+            while ((job = dirtyJobs.poll()) != null) {
+                if (jobs.contains(job)) {
+                    checkJob(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * Concurrent set of jobs that iterates in the order jobs were added. Jobs
+     * are found by {@link Job#equals(java.lang.Object)} (their ID), a removed
+     * job leaves a stale entry in the order, which is skipped and cleaned up
+     * later.
+     */
+    protected static class JobSet extends AbstractCollection<Job> {
+
+        protected static class Entry {
+
+            protected final Job job;
+
+            protected Entry(Job job) {
+                this.job = job;
+            }
+        }
+
+        protected final ConcurrentHashMap<Job, Entry> members = new ConcurrentHashMap<>();
+        protected final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+        protected final AtomicInteger stale = new AtomicInteger(0);
+
+        @Override
+        public boolean add(Job job) {
+            Entry entry = new Entry(job);
+            if (members.putIfAbsent(job, entry) != null) {
+                return false;
+            }
+            order.add(entry);
+            return true;
+        }
+
+        /**
+         *
+         * @param job
+         * @return contained job with the same ID, or null
+         */
+        public Job get(Job job) {
+            Entry entry = members.get(job);
+            return entry == null ? null : entry.job;
+        }
+
+        @Override
+        public boolean remove(Object job) {
+            if (members.remove(job) == null) {
+                return false;
+            }
+            if (stale.incrementAndGet() > Math.max(64, members.size())) {
+                stale.set(0);
+                order.removeIf(entry -> members.get(entry.job) != entry);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object job) {
+            return members.containsKey(job);
+        }
+
+        @Override
+        public int size() {
+            return members.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        @Override
+        public Iterator<Job> iterator() {
+            Iterator<Entry> iterator = order.iterator();
+            return new Iterator<Job>() {
+                Entry next;
+                Entry last;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && iterator.hasNext()) {
+                        Entry entry = iterator.next();
+                        if (members.get(entry.job) == entry) {
+                            next = entry;
+                        } else {
+                            iterator.remove(); // stale
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Job next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    last = next;
+                    next = null;
+                    return last.job;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    members.remove(last.job, last);
+                    last = null;
+                }
+            };
+        }
+    }
+
+    /**
+     * Ready job in priority queue.
+     */
+    protected static class ReadyJob implements Comparable<ReadyJob> {
+
+        protected final Job job;
+        protected final long key;
+        protected final long sequence;
+
+        protected ReadyJob(Job job, long key, long sequence) {
+            this.job = job;
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ReadyJob o) {
+            int c = Long.compare(key, o.key);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    /**
+     * Priority queue of ready jobs with limited amount of jobs passed to the
+     * executor. Every passed task runs the head of the queue at that time.
+     */
+    protected class PriorityDispatch implements Runnable {
+
+        protected final PriorityBlockingQueue<ReadyJob> queue = new PriorityBlockingQueue<>();
+        protected final AtomicInteger inFlight = new AtomicInteger(0);
+        protected final AtomicLong sequence = new AtomicLong(0);
+        protected final int maxInFlight;
+        protected final ToLongFunction<Job> keyOf;
+
+        protected PriorityDispatch(int maxInFlight, ToLongFunction<Job> keyOf) {
+            this.maxInFlight = maxInFlight;
+            this.keyOf = keyOf;
+        }
+
+        protected void add(Job job) {
+            queue.add(new ReadyJob(job, keyOf.applyAsLong(job), sequence.getAndIncrement()));
+            fill();
+        }
+
+        protected void addAll(List<Job> jobs) {
+            for (Job job : jobs) {
+                queue.add(new ReadyJob(job, keyOf.applyAsLong(job), sequence.getAndIncrement()));
+            }
+            fill();
+        }
+
+        protected void fill() {
+            while (!queue.isEmpty()) {
+                int flying = inFlight.get();
+                if (flying >= maxInFlight) {
+                    return;
+                }
+                if (inFlight.compareAndSet(flying, flying + 1)) {
+                    try {
+                        exe.execute(this);
+                    } catch (Throwable t) {
+                        inFlight.decrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                ReadyJob ready = queue.poll();
+                if (ready != null) {
+                    Job job = ready.job;
+                    if (checkDeadline(job) && discardMissedDeadlines && !job.isExecuted()
+                            && move(job, scheduledJobs, shardOf(job).jobs)) {
+                        discardedMissedDeadlines.incrementAndGet();
+                        discard(job);
+                    } else {
+                        job.run();
+                    }
+                }
+            } finally {
+                inFlight.decrementAndGet();
+                fill();
+            }
+        }
+    }
+
+    /**
+     * Runs a job, then the jobs it made ready on this worker, until the limit
+     * is reached. What is left is dispatched to the executor.
+     */
+    protected class Continuation implements Runnable {
+
+        protected Job next;
+        protected Job current;
+        /**
+         * Whether the task of {@link #current} has returned, only then jobs
+         * are made ready by it.
+         */
+        protected boolean returned;
+
+        protected Continuation(Job job) {
+            this.next = job;
+        }
+
+        @Override
+        public void run() {
+            Continuation outer = continuation.get();
+            continuation.set(this);
+            int limit = Math.max(1, continuationLimit);
+            int ran = 0;
+            try {
+                while (next != null && ran < limit) {
+                    Job job = next;
+                    next = null;
+                    current = job;
+                    returned = false;
+                    ran++;
+                    job.run();
+                }
+            } finally {
+                current = null;
+                continuation.set(outer);
+                if (next != null) {
+                    Job job = next;
+                    next = null;
+                    fork(new Continuation(job));
+                }
+            }
+        }
+    }
+
+    /**
+     * Remaining counted down dependencies of a job, including the submission
+     * guard.
+     */
+    protected static class Countdown extends AtomicInteger {
+
+        /**
+         * Whether all dependencies of the job are counted down.
+         */
+        protected boolean pure;
+
+        public Countdown() {
+            super(1);
+        }
+    }
+
+    /**
+     * Reverse index entry from a dependency's job to the dependent job.
+     */
+    protected static class DependencyEdge {
+
+        private static final AtomicIntegerFieldUpdater<DependencyEdge> SETTLED
+                = AtomicIntegerFieldUpdater.newUpdater(DependencyEdge.class, "settled");
+
+        public final Job upstream;
+        public final Job dependent;
+        public final JobDependency dependency;
+        protected Countdown countdown;
+        private volatile int settled;
+
+        public DependencyEdge(Job dependent, JobDependency dependency) {
+            this.upstream = Objects.requireNonNull(dependency.getJob());
+            this.dependent = dependent;
+            this.dependency = dependency;
+        }
+
+        public boolean isCountdown() {
+            return dependency instanceof SystemJobDependency
+                    && ((SystemJobDependency) dependency).isSettledOnDone();
+        }
+
+        /**
+         * @return true if this call settled the edge, false if it was settled
+         * before
+         */
+        public boolean trySettle() {
+            return SETTLED.compareAndSet(this, 0, 1);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(dependent) + System.identityHashCode(dependency);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DependencyEdge)) {
+                return false;
+            }
+            DependencyEdge other = (DependencyEdge) obj;
+            return dependent == other.dependent && dependency == other.dependency;
+        }
+    }
+
 }
@@ -1,14 +1,13 @@
 package com.github.laim0nas100.jobsystem;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.LockSupport;
-
 /**
+ *
+ * Layout of {@link Job#state}. Low 32 bits hold flags and the failed to start
+ * counter, high 32 bits hold attempts and {@link #MEMBERSHIP}.
  *
  * @author laim0nas100
  */
 public class JobState {
-    public final AtomicInteger flags = new AtomicInteger(0);
 
     // Bit constants
     public static final int EXCEPTIONAL = 1;
@@ -22,12 +21,25 @@ public class JobState {
     public static final int RUNNING = 1 << 8;
     public static final int CANCELLED = 1 << 9;
     public static final int DONE = 1 << 10;
+    public static final int DEADLINE_MISSED = 1 << 11;
+    public static final int RETRYING = 1 << 12;
+    public static final int TIMED_OUT = 1 << 13;
+    // executor is checking whether the job can run
+    public static final int CHECKING = 1 << 14;
+    // job should be checked again once the current check ends
+    public static final int RECHECK = 1 << 15;
 
     // upper 16 bits = failedToStart counter
     public static final int FAILED_SHIFT = 16;
     public static final int FAILED_INC = 1 << FAILED_SHIFT;
     public static final int FAILED_MASK = 0xFFFF0000;
 
+    // high 32 bits of the long = attempts, saturated at Integer.MAX_VALUE so the top bit is free
+    public static final int ATTEMPTS_SHIFT = 32;
+    public static final long ATTEMPTS_INC = 1L << ATTEMPTS_SHIFT;
+    // executor is adding, moving or removing the job in its job sets
+    public static final long MEMBERSHIP = 1L << 63;
+
     public static final int REMOVABLE_MASK
             = DISCARDED
             | SUCCESSFUL
@@ -35,161 +47,44 @@ public class JobState {
             | EXCEPTIONAL
             | INTERRUPTED
             | DONE;
-    
-    
-    public boolean trySetFlag(int flag) {
-        int current;
-        int updated;
-
-        do {
-            current = flags.get();
-
-            if ((current & flag) != 0) {
-                return false; // already set
-            }
-
-            updated = current | flag;
-            if (flags.compareAndSet(current, updated)) {
-                return true;
-            }
-            LockSupport.parkNanos(1);// backoff
-
-        } while (true);
-    }
-
-    public boolean tryClearFlag(int flag) {
-        int current;
-        int updated;
-
-        do {
-            current = flags.get();
-
-            if ((current & flag) == 0) {
-                return false; // already cleared
-            }
-
-            updated = current & ~flag;
-            boolean ok = flags.compareAndSet(current, updated);
-            if (ok) {
-                return ok;
-            }
-            LockSupport.parkNanos(1);// backoff
-
-        } while (true);
-    }
-
-    public void setFlag(int flag) {
-        setFlag(flag, true);
-    }
-
-    public void setFlag(int flag, boolean repeated) {
-        int current;
-        int updated;
-
-        do {
-            current = flags.get();
-            updated = current | flag;
-            if (current == updated) {
-                return;
-            }
-            if (flags.compareAndSet(current, updated)) {
-                return;
-            }
-            LockSupport.parkNanos(1);// backoff
-
-        } while (repeated);
-    }
 
-    public void clearFlag(int flag) {
-        clearFlag(flag, true);
+    public static int getFailedToStart(long state) {
+        return ((int) state) >>> FAILED_SHIFT;
     }
 
-    public void clearFlag(int flag, boolean repeated) {
-        int current;
-        int updated;
-
-        do {
-            current = flags.get();
-            updated = current & ~flag;
-
-            // already cleared
-            if (current == updated) {
-                return;
-            }
-
-            if (flags.compareAndSet(current, updated)) {
-                return;
-            }
-            LockSupport.parkNanos(1);// backoff
-        } while (repeated);
-    }
-
-    public boolean hasFlag(int flag) {
-        return (flags.get() & flag) != 0;
+    public static int getAttempts(long state) {
+        return (int) (state >>> ATTEMPTS_SHIFT) & Integer.MAX_VALUE;
     }
 
-    public int incrementFailedToStart() {
-        int current;
-        int updated;
-
-        int count;
-        do {
-            current = flags.get();
-
-            count = (current >>> FAILED_SHIFT);
-
-            // saturate at 65535
-            if (count == 0xFFFF) {
-                return count;
-            }
-
-            updated = current + FAILED_INC;
-            if (flags.compareAndSet(current, updated)) {
-                return count + 1;
-            }
-            LockSupport.parkNanos(1);// backoff
-
-        } while (true);
-
-    }
-    
-    /**
-     * {@link lt.lb.jobsystem.events.SystemJobEventName#ON_FAILED_TO_START}
-     *
-     * @return
-     */
-    public int getFailedToStart() {
-        return (flags.get() >>> FAILED_SHIFT);
-    }
-    
     /**
      * Returns if discarded or done.
      *
+     * @param state
      * @return
      */
-    public boolean isRemovable() {
-        return (flags.get() & REMOVABLE_MASK) != 0;
+    public static boolean isRemovable(long state) {
+        return (state & REMOVABLE_MASK) != 0;
     }
-    
+
     /**
      * Returns if isExecuted and done.
      *
+     * @param state
      * @return
      */
-    public boolean isAttempted() {
-        int bits = flags.get();
-        return (bits & JobState.EXECUTED) != 0
-                && (bits & JobState.DONE) != 0;
+    public static boolean isAttempted(long state) {
+        return (state & JobState.EXECUTED) != 0
+                && (state & JobState.DONE) != 0;
     }
-    
-     /**
+
+    /**
      * {@link lt.lb.jobsystem.events.SystemJobEventName#ON_ABORTED}
      *
+     * @param state
      * @return
      */
-    public boolean isAborted() {
-        int bits = flags.get();
-        return (bits & JobState.CANCELLED) != 0
-                && (bits & JobState.EXECUTED) == 0;
+    public static boolean isAborted(long state) {
+        return (state & JobState.CANCELLED) != 0
+                && (state & JobState.EXECUTED) == 0;
     }
 }
@@ -0,0 +1,129 @@
+package com.github.laim0nas100.jobsystem;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * How a failed job is retried. The same job runs again after an exponential
+ * backoff with random jitter, until it succeeds, fails with an error that is
+ * not retryable or runs out of attempts. Interrupted and cancelled jobs are
+ * never retried.
+ *
+ * @author laim0nas100
+ */
+public class RetryPolicy {
+
+    /**
+     * Attempts are counted in the high 32 bits of job state, see
+     * {@link JobState}.
+     */
+    public static final int MAX_ATTEMPTS = Integer.MAX_VALUE;
+
+    protected final int maxAttempts;
+    protected final long initialDelayNanos;
+    protected long maxDelayNanos = Long.MAX_VALUE;
+    protected double multiplier = 2;
+    protected double jitter = 0.5;
+    protected Predicate<Throwable> retryOn = error -> true;
+
+    /**
+     *
+     * @param maxAttempts how many times can the job run, including the first
+     * attempt
+     * @param initialDelay delay before the first retry
+     * @param unit
+     */
+    public RetryPolicy(int maxAttempts, long initialDelay, TimeUnit unit) {
+        if (maxAttempts < 1 || maxAttempts > MAX_ATTEMPTS) {
+            throw new IllegalArgumentException("Max attempts must be between 1 and " + MAX_ATTEMPTS + ", got " + maxAttempts);
+        }
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("Negative delay " + initialDelay);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayNanos = unit.toNanos(initialDelay);
+    }
+
+    /**
+     *
+     * @param multiplier how much the delay grows after every retry, 2 by
+     * default
+     * @return this
+     */
+    public RetryPolicy setMultiplier(double multiplier) {
+        if (!(multiplier >= 1)) {
+            throw new IllegalArgumentException("Multiplier must be at least 1, got " + multiplier);
+        }
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     *
+     * @param maxDelay delay doesn't grow further than this
+     * @param unit
+     * @return this
+     */
+    public RetryPolicy setMaxDelay(long maxDelay, TimeUnit unit) {
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("Negative delay " + maxDelay);
+        }
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        return this;
+    }
+
+    /**
+     *
+     * @param jitter fraction of the delay that is random, between 0 and 1,
+     * 0.5 by default
+     * @return this
+     */
+    public RetryPolicy setJitter(double jitter) {
+        if (!(jitter >= 0 && jitter <= 1)) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1, got " + jitter);
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     *
+     * @param retryOn which errors are retried, every error by default. Gets the
+     * error thrown by the job, not wrapped in
+     * {@link java.util.concurrent.ExecutionException}
+     * @return this
+     */
+    public RetryPolicy setRetryOn(Predicate<Throwable> retryOn) {
+        this.retryOn = Objects.requireNonNull(retryOn);
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     *
+     * @param error
+     * @return whether given error can be retried
+     */
+    public boolean isRetryable(Throwable error) {
+        return retryOn.test(error);
+    }
+
+    /**
+     *
+     * @param attempt failed attempt, starting from 1
+     * @return delay before the next attempt in nanoseconds
+     */
+    public long getDelayNanos(int attempt) {
+        double delay = initialDelayNanos * Math.pow(multiplier, Math.max(0, attempt - 1));
+        delay = Math.min(delay, maxDelayNanos);
+        if (jitter > 0) {
+            delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        }
+        return (long) delay;
+    }
+}
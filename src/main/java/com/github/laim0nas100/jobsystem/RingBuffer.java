@@ -0,0 +1,182 @@
+package com.github.laim0nas100.jobsystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounded lock-free queue on a ring of slots. Every slot has a sequence
+ * number, which tells whether it is free for the producer of given turn or
+ * filled for the consumer of given turn, so producers and consumers only
+ * contend on their own counter. Never blocks, {@link #offer(java.lang.Object)}
+ * fails when the ring is full.
+ *
+ * Items can also be created up front and reused in place, so nothing is
+ * allocated per item: {@link #claim()} a slot, write into {@link #get(long)}
+ * and {@link #publish(long)} it, then {@link #take()} it on the other side,
+ * read it and {@link #free(long)} it.
+ *
+ * @author laim0nas100
+ * @param <T>
+ */
+public class RingBuffer<T> {
+
+    protected final int mask;
+    protected final AtomicReferenceArray<T> items;
+    protected final AtomicLongArray sequences;
+    protected final AtomicLong head = new AtomicLong(0);
+    protected final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     *
+     * @param capacity how many items fit, rounded up to a power of 2
+     * @param factory creates the item of every slot, to be reused in place
+     */
+    public RingBuffer(int capacity, Supplier<? extends T> factory) {
+        this(capacity);
+        for (int i = 0; i < capacity(); i++) {
+            items.set(i, factory.get());
+        }
+    }
+
+    /**
+     *
+     * @param capacity how many items fit, rounded up to a power of 2
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Illegal capacity " + capacity);
+        }
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity) {
+            length <<= 1;
+        }
+        this.mask = length - 1;
+        this.items = new AtomicReferenceArray<>(length);
+        this.sequences = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     *
+     * @param item not null
+     * @return false if the ring is full
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Null item");
+        }
+        long t = claim();
+        if (t < 0) {
+            return false;
+        }
+        items.lazySet((int) (t & mask), item);
+        publish(t);
+        return true;
+    }
+
+    /**
+     *
+     * @return next item or null if there is none
+     */
+    public T poll() {
+        long h = take();
+        if (h < 0) {
+            return null;
+        }
+        int index = (int) (h & mask);
+        T item = items.get(index);
+        items.lazySet(index, null);
+        free(h);
+        return item;
+    }
+
+    /**
+     * Claim the next slot for writing, it must be published after.
+     *
+     * @return sequence of the claimed slot, -1 if the ring is full
+     */
+    public long claim() {
+        while (true) {
+            long t = tail.get();
+            long diff = sequences.get((int) (t & mask)) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    return t;
+                }
+            } else if (diff < 0) {
+                return -1; // slot not yet consumed from previous turn
+            }
+        }
+    }
+
+    /**
+     * Make a claimed slot available for taking.
+     *
+     * @param sequence
+     */
+    public void publish(long sequence) {
+        sequences.set((int) (sequence & mask), sequence + 1);
+    }
+
+    /**
+     * Take the next published slot for reading, it must be freed after.
+     *
+     * @return sequence of the taken slot, -1 if there is none
+     */
+    public long take() {
+        while (true) {
+            long h = head.get();
+            long diff = sequences.get((int) (h & mask)) - (h + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(h, h + 1)) {
+                    return h;
+                }
+            } else if (diff < 0) {
+                return -1; // slot not yet published
+            }
+        }
+    }
+
+    /**
+     * Make a taken slot available for claiming in the next turn.
+     *
+     * @param sequence
+     */
+    public void free(long sequence) {
+        sequences.set((int) (sequence & mask), sequence + mask + 1);
+    }
+
+    /**
+     *
+     * @param sequence claimed or taken slot
+     * @return item of the slot
+     */
+    public T get(long sequence) {
+        return items.get((int) (sequence & mask));
+    }
+
+    /**
+     *
+     * @return whether there is no published item to poll
+     */
+    public boolean isEmpty() {
+        long h = head.get();
+        return sequences.get((int) (h & mask)) != h + 1;
+    }
+
+    /**
+     *
+     * @return approximate number of items
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(tail.get() - head.get(), capacity()));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -10,6 +10,14 @@ import java.util.concurrent.TimeUnit;
  * Job scheduling uses same provided executor (usually the same work thread
  * after job was finished). Periodically (3 seconds by default) rescans jobs.
  *
+ * Only needed for dependencies that change without telling the executor.
+ * Delayed jobs (see {@link Job#setDelay(long, java.util.concurrent.TimeUnit)}) are
+ * woken by a timer and dependencies that support
+ * {@link com.github.laim0nas100.jobsystem.dependency.Dependency#subscribe}
+ * (like {@link com.github.laim0nas100.jobsystem.dependency.ObservableDependency})
+ * wake their jobs on any executor, so for them the rescan is only a safety
+ * net and can be rare.
+ *
  * @author laim0nas100
  */
 public class ScheduledJobExecutor extends JobExecutor {
@@ -31,7 +39,20 @@ public class ScheduledJobExecutor extends JobExecutor {
      * @param exe Main executor
      */
     public ScheduledJobExecutor(long time, TimeUnit unit, int requestThrottle, int rescanThrottle , Executor exe) {
-        super(requestThrottle, rescanThrottle, exe);
+        this(time, unit, requestThrottle, rescanThrottle, false, exe);
+    }
+
+    /**
+     * @param time rescan period time
+     * @param unit rescan period unit
+     * @param requestThrottle how many concurrent rescan requests can queue up
+     * @param rescanThrottle how many concurrent rescan jobs can be happening
+     * @param indexed whether to index job dependencies in reverse, see
+     * {@link JobExecutor#indexed}
+     * @param exe Main executor
+     */
+    public ScheduledJobExecutor(long time, TimeUnit unit, int requestThrottle, int rescanThrottle, boolean indexed, Executor exe) {
+        super(requestThrottle, rescanThrottle, indexed, exe);
         service.scheduleAtFixedRate(() -> rescanJobs(), time, time, unit);
     }
 
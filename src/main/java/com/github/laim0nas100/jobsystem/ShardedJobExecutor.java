@@ -0,0 +1,50 @@
+package com.github.laim0nas100.jobsystem;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Indexed job executor that splits waiting jobs into several shards, each
+ * scanned on its own. A finished job only wakes the shards that hold its
+ * dependents, so large job graphs don't contend on a single scan.
+ *
+ * @author laim0nas100
+ */
+public class ShardedJobExecutor extends JobExecutor {
+
+    /**
+     * Shard count equal to available processors (capped at 64).
+     *
+     * @param exe Main executor
+     */
+    public ShardedJobExecutor(Executor exe) {
+        this(Math.min(64, Runtime.getRuntime().availableProcessors()), exe);
+    }
+
+    /**
+     * @param shards shard count (1 to 64)
+     * @param exe Main executor
+     */
+    public ShardedJobExecutor(int shards, Executor exe) {
+        this(shards, 2, 2, exe);
+    }
+
+    /**
+     * @param shards shard count (1 to 64)
+     * @param requestThrottle how many rescan requests can queue up per shard
+     * @param rescanThrottle how many concurrent rescan jobs can be happening
+     * per shard (2 at least)
+     * @param exe Main executor
+     */
+    public ShardedJobExecutor(int shards, int requestThrottle, int rescanThrottle, Executor exe) {
+        super(shards, requestThrottle, rescanThrottle, true, exe);
+    }
+
+    /**
+     *
+     * @return shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.github.laim0nas100.jobsystem;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel. Timeouts are put in buckets by their tick, timeouts
+ * further than one wheel turn away wait for more rounds. Scheduling and
+ * cancelling takes constant time, only the bucket of the current tick is
+ * visited on each tick.
+ *
+ * Tasks run on a single daemon thread, that is started with the first timeout
+ * and parks while there are no timeouts, so tasks should be short (like
+ * waking a job). A task never runs before its delay passes, but can run up to
+ * one tick late.
+ *
+ * @author laim0nas100
+ */
+public class TimerWheel {
+
+    /**
+     * Scheduled task handle.
+     */
+    public static class Timeout {
+
+        protected static final int WAITING = 0;
+        protected static final int CANCELLED = 1;
+        protected static final int EXPIRED = 2;
+
+        protected final Runnable task;
+        protected final long deadline;
+        protected long rounds;
+        protected final AtomicInteger state = new AtomicInteger(WAITING);
+
+        protected Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task, if it has not run yet. Cancelled timeouts are
+         * removed when their bucket is visited.
+         *
+         * @return whether the task was prevented from running
+         */
+        public boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    private static class DefaultHolder {
+
+        private static final TimerWheel DEFAULT = new TimerWheel(1, TimeUnit.MILLISECONDS, 512);
+    }
+
+    protected final long tickNanos;
+    protected final int mask;
+    protected final ArrayDeque<Timeout>[] buckets;
+    protected final long start = System.nanoTime();
+    protected final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    protected final AtomicBoolean started = new AtomicBoolean(false);
+    protected volatile Thread worker;
+    /**
+     * Only used by worker.
+     */
+    protected long tick;
+    /**
+     * Only used by worker.
+     */
+    protected long size;
+
+    /**
+     *
+     * @param tick tick duration
+     * @param unit tick duration unit
+     * @param wheelSize how many buckets, rounded up to a power of 2
+     */
+    public TimerWheel(long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0 || wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Illegal tick " + tick + " or wheel size " + wheelSize);
+        }
+        int length = Integer.highestOneBit(wheelSize);
+        if (length < wheelSize) {
+            length <<= 1;
+        }
+        this.tickNanos = unit.toNanos(tick);
+        this.mask = length - 1;
+        this.buckets = new ArrayDeque[length];
+        for (int i = 0; i < length; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     *
+     * @return shared timer with 1 millisecond ticks
+     */
+    public static TimerWheel getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Run task after given delay.
+     *
+     * @param task
+     * @param delay
+     * @param unit
+     * @return handle to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+        pending.add(timeout);
+        if (started.compareAndSet(false, true)) {
+            Thread thread = new Thread(this::work, "job-timer");
+            thread.setDaemon(true);
+            worker = thread;
+            thread.start();
+        } else {
+            LockSupport.unpark(worker);
+        }
+        return timeout;
+    }
+
+    private void work() {
+        tick = (System.nanoTime() - start) / tickNanos;
+        while (true) {
+            if (size == 0 && pending.isEmpty()) {
+                LockSupport.park(this);
+                tick = Math.max(tick, (System.nanoTime() - start) / tickNanos); // skip idle ticks
+                continue;
+            }
+            long tickEnd = start + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = tickEnd - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long due = Math.max(tick, (timeout.deadline - start) / tickNanos);
+            timeout.rounds = (due - tick) / buckets.length;
+            buckets[(int) (due & mask)].add(timeout);
+            size++;
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.isCancelled()) {
+                iterator.remove();
+                size--;
+            } else if (timeout.rounds <= 0) {
+                iterator.remove();
+                size--;
+                if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable t) {
+                    }
+                }
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.laim0nas100.jobsystem;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Virtual thread support. This version is used before Java 21, the jar
+ * contains a Java 21 version under META-INF/versions/21.
+ *
+ * @author laim0nas100
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+
+    static ExecutorService newExecutor() {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or newer, running on " + System.getProperty("java.version"));
+    }
+}
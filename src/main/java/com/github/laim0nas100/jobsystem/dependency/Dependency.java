@@ -25,4 +25,38 @@ public interface Dependency {
     public default boolean isPossible(){
         return true;
     }
+
+    /**
+     * Subscribe to changes of this dependency for given job, so it doesn't
+     * need to be polled. Dependency must call onChange every time it might have
+     * become completed or impossible for given job.
+     *
+     * @param job
+     * @param onChange
+     * @return whether subscription is supported, if not, job is polled
+     */
+    public default boolean subscribe(Job job, Runnable onChange) {
+        return false;
+    }
+
+    /**
+     * Whether {@link #isCompleted(Job)} reserves something for the job, like
+     * {@link ResourcePool} permits. Such dependencies are checked after every
+     * other one, so nothing is reserved for a job that can't run yet.
+     *
+     * @return
+     */
+    public default boolean isReserving() {
+        return false;
+    }
+
+    /**
+     * Give back what {@link #isCompleted(Job)} reserved, because other
+     * reserving dependency of the job is not completed. Must not take
+     * anything from a scheduled or running job.
+     *
+     * @param job
+     */
+    public default void unreserve(Job job) {
+    }
 }
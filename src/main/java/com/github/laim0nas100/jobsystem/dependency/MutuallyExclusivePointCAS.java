@@ -60,6 +60,13 @@ public class MutuallyExclusivePointCAS implements Dependency {
             return scheduled.compareAndSet(job, job) && dibsed.compareAndSet(job, job);
         }
 
+        Job holder = dibsed.get();
+        if (holder != null && holder != job && holder.isRemovable()) {
+            // dibs were given back to a job that finished in the meantime
+            scheduled.compareAndSet(holder, null);
+            dibsed.compareAndSet(holder, null);
+        }
+
         //try to aquire or this job still hold the dibs
         if (dibsed.compareAndSet(null, job) || dibsed.compareAndSet(job, job)) {
             return true;
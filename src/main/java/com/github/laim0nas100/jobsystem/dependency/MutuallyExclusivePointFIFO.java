@@ -0,0 +1,38 @@
+package com.github.laim0nas100.jobsystem.dependency;
+
+import com.github.laim0nas100.jobsystem.Job;
+
+/**
+ *
+ * Simulates shared data that can only be accessed by one job at a time. A job
+ * can be in multiple exclusive points.
+ *
+ * Keeps an owner and an ordered wait list instead of checking every sharing
+ * job, so a check takes constant time. When the owner becomes done, the point
+ * is handed to the next waiting job and only that job is woken up (when the
+ * executor is indexed, otherwise every job is still rescanned).
+ *
+ * Works better than {@link MutuallyExclusivePoint} for points shared by many
+ * jobs. Same as a {@link ResourcePool} with 1 permit.
+ *
+ * @author laim0nas100
+ */
+public class MutuallyExclusivePointFIFO extends ResourcePool {
+
+    public MutuallyExclusivePointFIFO() {
+        super(1);
+    }
+
+    /**
+     *
+     * @return current owner, if any
+     */
+    public Job getOwner() {
+        lock.lock();
+        try {
+            return reservations.isEmpty() ? null : reservations.keySet().iterator().next();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
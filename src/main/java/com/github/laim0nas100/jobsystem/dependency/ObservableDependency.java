@@ -0,0 +1,57 @@
+package com.github.laim0nas100.jobsystem.dependency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.github.laim0nas100.jobsystem.Job;
+
+/**
+ *
+ * Dependency on something outside of the job system (a flag, a counter,
+ * resource availability), that tells the executor when it changes, so only
+ * the jobs that have this dependency are checked again and no periodic rescan
+ * is needed. Call {@link #changed()} every time the dependency might have
+ * become completed or impossible.
+ *
+ * @author laim0nas100
+ */
+public abstract class ObservableDependency implements Dependency {
+
+    protected Map<Job, Runnable> subscribers = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean subscribe(Job job, Runnable onChange) {
+        subscribers.put(job, onChange);
+        return true;
+    }
+
+    /**
+     * Notify executors of every job that has this dependency and is not done.
+     * Done jobs are unsubscribed.
+     */
+    public void changed() {
+        for (Map.Entry<Job, Runnable> entry : subscribers.entrySet()) {
+            if (entry.getKey().isDone()) {
+                subscribers.remove(entry.getKey(), entry.getValue());
+            } else {
+                entry.getValue().run();
+            }
+        }
+    }
+
+    /**
+     * Notify executor of given job only.
+     *
+     * @param job
+     */
+    public void changed(Job job) {
+        Runnable onChange = subscribers.get(job);
+        if (onChange == null) {
+            return;
+        }
+        if (job.isDone()) {
+            subscribers.remove(job, onChange);
+        } else {
+            onChange.run();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.github.laim0nas100.jobsystem.dependency;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import com.github.laim0nas100.jobsystem.Job;
+import com.github.laim0nas100.jobsystem.events.SystemJobEventName;
+
+/**
+ *
+ * Simulates a resource that at most N permits worth of jobs can use at a time,
+ * every job can take a different amount of permits. A job can be in multiple
+ * pools.
+ *
+ * Waiting jobs get permits in FIFO order (in order of their first check), a
+ * job that doesn't fit blocks the ones behind it. When a job becomes done or
+ * fails to start, its permits are handed directly to the next waiting jobs and
+ * only those are woken up (if their executor subscribed).
+ *
+ * Permits are reserved when the job is checked, after its other dependencies
+ * are satisfied (see {@link Dependency#isReserving()}). If other reserving
+ * dependency of the job is not, the permits are handed to the next waiting
+ * jobs. Reservations of jobs that were cancelled or discarded without running
+ * are revoked in favor of other waiting jobs.
+ *
+ * @author laim0nas100
+ */
+public class ResourcePool implements Dependency {
+
+    protected static class Reservation {
+
+        protected final int weight;
+
+        protected Reservation(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    protected final int permits;
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected Map<Job, Integer> weights = new ConcurrentHashMap<>();
+    protected Map<Job, Runnable> subscribers = new ConcurrentHashMap<>();
+    /**
+     * Guarded by lock.
+     */
+    protected LinkedHashSet<Job> waiting = new LinkedHashSet<>();
+    /**
+     * Guarded by lock.
+     */
+    protected Map<Job, Reservation> reservations = new HashMap<>();
+    /**
+     * Guarded by lock.
+     */
+    protected int available;
+
+    /**
+     *
+     * @param permits total permits
+     */
+    public ResourcePool(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Permits must be positive, got " + permits);
+        }
+        this.permits = permits;
+        this.available = permits;
+    }
+
+    public void addSharingJob(final Job job) {
+        addSharingJob(job, 1);
+    }
+
+    /**
+     *
+     * @param job
+     * @param weight how many permits the job takes
+     */
+    public void addSharingJob(final Job job, int weight) {
+        if (weight < 1 || weight > permits) {
+            throw new IllegalArgumentException("Weight must be between 1 and " + permits + ", got " + weight);
+        }
+        job.addDependency(this);
+        weights.put(job, weight);
+        job.addListener(SystemJobEventName.ON_FAILED_TO_START, (j, c, d) -> {
+            release(job, false);
+        });
+        job.addListener(SystemJobEventName.ON_DONE, (j, c, d) -> {
+            release(job, true);
+        });
+    }
+
+    @Override
+    public boolean isCompleted(Job job) {
+        Integer weight = weights.get(job);
+        if (weight == null) { // not sharing or allready done
+            return true;
+        }
+        List<Job> granted;
+        Reservation reservation;
+        lock.lock();
+        try {
+            if (job.isDone()) { // checked concurrently with its completion, permits are released on done
+                return true;
+            }
+            reservation = reservations.get(job);
+            if (reservation == null) {
+                waiting.add(job);
+                granted = grant();
+                if (!reservations.containsKey(job) && revokeAbandoned()) {
+                    granted.addAll(grant());
+                }
+                reservation = reservations.get(job);
+            } else {
+                granted = new ArrayList<>(0);
+            }
+        } finally {
+            lock.unlock();
+        }
+        notify(granted, job);
+        return reservation != null;
+    }
+
+    @Override
+    public boolean isReserving() {
+        return true;
+    }
+
+    @Override
+    public void unreserve(Job job) {
+        if (job.isScheduled() || job.isRunning() || !weights.containsKey(job)) {
+            return;
+        }
+        List<Job> granted;
+        lock.lock();
+        try {
+            Reservation reservation = reservations.remove(job);
+            if (reservation == null) {
+                return;
+            }
+            available += reservation.weight;
+            granted = grant();
+        } finally {
+            lock.unlock();
+        }
+        notify(granted, job);
+    }
+
+    @Override
+    public boolean subscribe(Job job, Runnable onChange) {
+        if (!weights.containsKey(job)) {
+            return false;
+        }
+        subscribers.put(job, onChange);
+        return true;
+    }
+
+    /**
+     *
+     * @return permits not reserved by any job
+     */
+    public int getAvailable() {
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * Give back job permits and hand them over to next waiting jobs.
+     *
+     * @param job
+     * @param done whether job will not need permits again
+     */
+    protected void release(Job job, boolean done) {
+        List<Job> granted;
+        lock.lock();
+        try {
+            Reservation reservation = reservations.remove(job);
+            waiting.remove(job);
+            if (reservation != null) {
+                available += reservation.weight;
+            }
+            granted = grant();
+        } finally {
+            lock.unlock();
+        }
+        if (done) {
+            weights.remove(job);
+            subscribers.remove(job);
+        }
+        notify(granted, null);
+    }
+
+    /**
+     * Reserve permits for waiting jobs in order, while they fit. Must hold
+     * lock.
+     *
+     * @return jobs that got permits
+     */
+    protected List<Job> grant() {
+        List<Job> granted = new ArrayList<>(1);
+        Iterator<Job> iterator = waiting.iterator();
+        while (iterator.hasNext()) {
+            Job next = iterator.next();
+            if (next.isDone()) {
+                iterator.remove();
+                continue;
+            }
+            int weight = weights.getOrDefault(next, 0);
+            if (weight > available) {
+                break;
+            }
+            iterator.remove();
+            available -= weight;
+            reservations.put(next, new Reservation(weight));
+            granted.add(next);
+        }
+        return granted;
+    }
+
+    /**
+     * Revoke reservations of jobs that will not use them: cancelled, discarded
+     * or otherwise finished, but not running. Usually permits are released
+     * when such job becomes done, this covers the time before. Must hold lock.
+     *
+     * @return whether any permits were revoked
+     */
+    protected boolean revokeAbandoned() {
+        boolean revoked = false;
+        Iterator<Map.Entry<Job, Reservation>> iterator = reservations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Job, Reservation> entry = iterator.next();
+            Job holder = entry.getKey();
+            if (!holder.isRemovable() || holder.isRunning()) {
+                continue;
+            }
+            iterator.remove();
+            available += entry.getValue().weight;
+            revoked = true;
+        }
+        return revoked;
+    }
+
+    private void notify(List<Job> granted, Job caller) {
+        for (Job job : granted) {
+            if (job == caller) {
+                continue;
+            }
+            Runnable onChange = subscribers.get(job);
+            if (onChange != null) {
+                onChange.run();
+            }
+        }
+    }
+}
@@ -16,6 +16,9 @@ import java.util.Set;
  */
 public class EventListeners {
 
+    protected static final SystemJobEventName[] SYSTEM_EVENTS = SystemJobEventName.values();
+    protected static final JobEventListener[] NO_LISTENERS = new JobEventListener[0];
+
     //should be reassigned at executor
     protected Map<Serializable, List<JobEventListener>> jobExecutorMap = Collections.EMPTY_MAP;
 
@@ -23,11 +26,24 @@ public class EventListeners {
 
     protected transient List<JobEventListener> allValues;
 
+    /**
+     * Merged system event listeners indexed by event ordinal, rebuilt after
+     * listeners change.
+     */
+    protected transient volatile JobEventListener[][] systemListeners;
+
+    /**
+     * {@link ListenerMap#versionOf(java.util.Map)} of executor map when
+     * merged listeners were cached.
+     */
+    protected transient volatile int executorVersion;
+
     public EventListeners() {
     }
 
     public void assignJobExecutorMap(Map<Serializable, List<JobEventListener>> map) {
         allValues = null;//reset
+        systemListeners = null;
         jobExecutorMap = Objects.requireNonNull(map);
     }
 
@@ -76,29 +92,67 @@ public class EventListeners {
 
     }
 
+    /**
+     * Same as {@link #get(java.io.Serializable)}, but merged listeners are
+     * kept, so getting them doesn't allocate, unless listeners changed.
+     *
+     * @param event
+     * @return listeners, executor listeners first, empty array if none
+     */
+    public JobEventListener[] getSystem(SystemJobEventName event) {
+        checkExecutorVersion();
+        JobEventListener[][] table = systemListeners;
+        if (table == null) {
+            table = new JobEventListener[SYSTEM_EVENTS.length][];
+            for (SystemJobEventName name : SYSTEM_EVENTS) {
+                List<JobEventListener> list = get(name);
+                table[name.ordinal()] = list == null || list.isEmpty() ? NO_LISTENERS : list.toArray(NO_LISTENERS);
+            }
+            systemListeners = table;
+        }
+        return table[event.ordinal()];
+    }
+
+    /**
+     * Drops cached listeners if executor map changed since they were cached.
+     */
+    protected void checkExecutorVersion() {
+        int version = ListenerMap.versionOf(jobExecutorMap);
+        if (version != executorVersion) {
+            allValues = null;
+            systemListeners = null;
+            executorVersion = version;
+        }
+    }
+
     public void addAll(Serializable key, List<JobEventListener> list) {
         allValues = null;//reset
+        systemListeners = null;
         getMap(true).computeIfAbsent(key, k -> new ArrayList<>()).addAll(list);
     }
 
     public void add(Serializable key, JobEventListener value) {
         allValues = null;//reset
+        systemListeners = null;
         getMap(true).computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
         
     }
 
     public List<JobEventListener> remove(Serializable key) {
         allValues = null;//reset
+        systemListeners = null;
         return getMap(true).remove(key);
     }
 
     public void putAll(Map<? extends Serializable, ? extends List<JobEventListener>> m) {
         allValues = null;//reset
+        systemListeners = null;
         getMap(true).putAll(m);
     }
 
     public void clear() {
         allValues = null;//reset
+        systemListeners = null;
         getMap(false).clear();
     }
 
@@ -126,6 +180,7 @@ public class EventListeners {
      * @return
      */
     public List<JobEventListener> values() {
+        checkExecutorVersion();
         if (allValues != null) {
             return allValues;
         }
@@ -8,11 +8,43 @@ import com.github.laim0nas100.jobsystem.Job;
  * @author laim0nas100
  * @param <T>
  */
-public interface JobEventListener<T> {
+public interface JobEventListener<T> extends RawJobEventListener {
 
 //    public void onEvent(JobEvent<T> event);
 
     public void onEvent(Job<T> job, Object classifier, Optional<T> data);
-    
-    
+
+    /**
+     * System events are fired through this method, which wraps data for
+     * {@link #onEvent(com.github.laim0nas100.jobsystem.Job, java.lang.Object, java.util.Optional)}.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public default void onRawEvent(Job job, int event, Object payload) {
+        onEvent(job, SystemJobEventName.of(event), Optional.ofNullable((T) payload));
+    }
+
+    /**
+     * Adapts a raw listener, so it can be registered like any other listener,
+     * but gets system event data without wrapping.
+     *
+     * @param <T>
+     * @param listener
+     * @return
+     */
+    public static <T> JobEventListener<T> raw(RawJobEventListener listener) {
+        return new JobEventListener<T>() {
+            @Override
+            public void onEvent(Job<T> job, Object classifier, Optional<T> data) {
+                int event = classifier instanceof SystemJobEventName ? ((SystemJobEventName) classifier).ordinal() : -1;
+                listener.onRawEvent(job, event, data.orElse(null));
+            }
+
+            @Override
+            public void onRawEvent(Job job, int event, Object payload) {
+                listener.onRawEvent(job, event, payload);
+            }
+        };
+    }
 }
@@ -0,0 +1,166 @@
+package com.github.laim0nas100.jobsystem.events;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import com.github.laim0nas100.jobsystem.Job;
+import com.github.laim0nas100.jobsystem.RingBuffer;
+
+/**
+ *
+ * System events of every job in an executor, see
+ * {@link com.github.laim0nas100.jobsystem.JobExecutor#addEventStream(JobEventStream)}.
+ * Events are written in place into pre-allocated slots of a {@link RingBuffer},
+ * so publishing allocates nothing and never blocks: when the ring is full the
+ * event is dropped and counted. Slots are consumed in batches on given
+ * executor, one batch at a time, in the order they were published.
+ *
+ * @author laim0nas100
+ */
+public class JobEventStream {
+
+    @FunctionalInterface
+    public static interface Handler {
+
+        /**
+         * Arguments are only valid during the call, slot is reused after it.
+         *
+         * @param job
+         * @param event
+         * @param payload event data, null if none
+         * @param endOfBatch whether this is the last event available for now
+         */
+        public void onEvent(Job job, SystemJobEventName event, Object payload, boolean endOfBatch);
+    }
+
+    protected static class Slot {
+
+        protected Job job;
+        protected int event;
+        protected Object payload;
+    }
+
+    protected final Handler handler;
+    protected final Executor executor;
+    protected final RingBuffer<Slot> ring;
+    protected final AtomicBoolean draining = new AtomicBoolean(false);
+    protected final AtomicLong dropped = new AtomicLong(0);
+    protected final AtomicLong failed = new AtomicLong(0);
+    protected volatile boolean[] accepted;
+    protected volatile boolean closed;
+
+    /**
+     *
+     * @param capacity ring size, rounded up to a power of 2
+     * @param executor where handler runs
+     * @param handler
+     */
+    public JobEventStream(int capacity, Executor executor, Handler handler) {
+        this.handler = Objects.requireNonNull(handler);
+        this.executor = Objects.requireNonNull(executor);
+        this.ring = new RingBuffer<>(capacity, Slot::new);
+        setEvents(EnumSet.allOf(SystemJobEventName.class));
+    }
+
+    /**
+     *
+     * @param events which events are published, every one by default
+     * @return this
+     */
+    public JobEventStream setEvents(EnumSet<SystemJobEventName> events) {
+        boolean[] array = new boolean[SystemJobEventName.values().length];
+        for (SystemJobEventName event : events) {
+            array[event.ordinal()] = true;
+        }
+        this.accepted = array;
+        return this;
+    }
+
+    /**
+     * Stop accepting events, already published events are still handled.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     *
+     * @return how many events did not fit in the ring
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     *
+     * @return how many events the handler threw on
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     *
+     * @return whether every published event has been handled
+     */
+    public boolean isIdle() {
+        return !draining.get() && ring.size() == 0;
+    }
+
+    /**
+     * Called by the executor on the thread that fired the event.
+     *
+     * @param job
+     * @param event {@link SystemJobEventName} ordinal
+     * @param payload
+     * @return false if event was dropped or not accepted
+     */
+    public boolean publish(Job job, int event, Object payload) {
+        if (closed || !accepted[event]) {
+            return false;
+        }
+        long sequence = ring.claim();
+        if (sequence < 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        Slot slot = ring.get(sequence);
+        slot.job = job;
+        slot.event = event;
+        slot.payload = payload;
+        ring.publish(sequence);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                drain(); // executor is gone, don't lose events
+            }
+        }
+        return true;
+    }
+
+    protected void drain() {
+        do {
+            long sequence;
+            while ((sequence = ring.take()) >= 0) {
+                Slot slot = ring.get(sequence);
+                try {
+                    handler.onEvent(slot.job, SystemJobEventName.of(slot.event), slot.payload, ring.isEmpty());
+                } catch (Throwable th) {
+                    failed.incrementAndGet();
+                }
+                slot.job = null;
+                slot.payload = null;
+                ring.free(sequence);
+            }
+            draining.set(false);
+        } while (!ring.isEmpty() && draining.compareAndSet(false, true)); // published after last take
+    }
+}
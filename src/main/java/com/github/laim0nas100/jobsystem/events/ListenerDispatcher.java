@@ -0,0 +1,208 @@
+package com.github.laim0nas100.jobsystem.events;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.github.laim0nas100.jobsystem.Job;
+import com.github.laim0nas100.jobsystem.RingBuffer;
+
+/**
+ *
+ * Decides where wrapped listeners run, so slow listeners (logging, metrics)
+ * don't hold up the thread that fired the event. Wrap a listener and register
+ * the result as usual, for a single event or for many.
+ *
+ * Events of the same job reach listeners wrapped by the same dispatcher in the
+ * order they were fired. Firing thread never waits for a listener.
+ * Exceptions thrown by offloaded listeners are reported with
+ * {@link SystemJobEventName#ON_EXCEPTIONAL_EVENT} on the listener thread.
+ *
+ * @author laim0nas100
+ */
+public class ListenerDispatcher {
+
+    public static enum Mode {
+        /**
+         * Run on the thread that fired the event.
+         */
+        INLINE,
+        /**
+         * Run on the executor. Jobs are spread over serial lanes, events of
+         * one job always go to the same lane.
+         */
+        OFFLOADED,
+        /**
+         * Put in a bounded ring buffer, that is drained in batches on the
+         * executor. Events that don't fit are dropped.
+         */
+        BATCHED
+    }
+
+    protected static class Event implements Runnable {
+
+        protected final JobEventListener listener;
+        protected final Job job;
+        protected final Object classifier;
+        protected final Object payload;
+
+        protected Event(JobEventListener listener, Job job, Object classifier, Object payload) {
+            this.listener = listener;
+            this.job = job;
+            this.classifier = classifier;
+            this.payload = payload;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (classifier instanceof SystemJobEventName) {
+                    listener.onRawEvent(job, ((SystemJobEventName) classifier).ordinal(), payload);
+                } else {
+                    listener.onEvent(job, classifier, Optional.ofNullable(payload));
+                }
+            } catch (Throwable th) {
+                if (classifier != SystemJobEventName.ON_EXCEPTIONAL_EVENT) {
+                    job.fireRawSystemEvent(SystemJobEventName.ON_EXCEPTIONAL_EVENT, th);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serial executor, runs at most one drain at a time.
+     */
+    protected class Lane implements Runnable {
+
+        protected final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+        protected final AtomicInteger pending = new AtomicInteger(0);
+
+        protected void add(Event event) {
+            queue.add(event);
+            if (pending.getAndIncrement() == 0) {
+                submit(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                queue.poll().run();
+            } while (pending.decrementAndGet() > 0);
+        }
+    }
+
+    protected final Mode mode;
+    protected final Executor executor;
+    protected final Lane[] lanes;
+    protected final RingBuffer<Event> ring;
+    protected final AtomicBoolean draining = new AtomicBoolean(false);
+    protected final AtomicLong dropped = new AtomicLong(0);
+
+    /**
+     *
+     * @param mode
+     * @param executor where listeners run, ignored when {@link Mode#INLINE}
+     * @param size lane count for {@link Mode#OFFLOADED}, ring buffer capacity
+     * for {@link Mode#BATCHED}, rounded up to a power of 2
+     */
+    public ListenerDispatcher(Mode mode, Executor executor, int size) {
+        this.mode = Objects.requireNonNull(mode);
+        if (mode != Mode.INLINE && executor == null) {
+            throw new IllegalArgumentException("Mode " + mode + " needs an executor");
+        }
+        if (mode != Mode.INLINE && (size <= 0 || size > 1 << 30)) {
+            throw new IllegalArgumentException("Illegal size " + size);
+        }
+        this.executor = executor;
+        if (mode == Mode.OFFLOADED) {
+            int length = Integer.highestOneBit(size);
+            this.lanes = new Lane[length < size ? length << 1 : length];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new Lane();
+            }
+        } else {
+            this.lanes = null;
+        }
+        this.ring = mode == Mode.BATCHED ? new RingBuffer<>(size) : null;
+    }
+
+    /**
+     *
+     * @param <T>
+     * @param listener
+     * @return listener to register instead of given one
+     */
+    public <T> JobEventListener<T> wrap(JobEventListener<T> listener) {
+        Objects.requireNonNull(listener);
+        if (mode == Mode.INLINE) {
+            return listener;
+        }
+        return new JobEventListener<T>() {
+            @Override
+            public void onEvent(Job<T> job, Object classifier, Optional<T> data) {
+                dispatch(new Event(listener, job, classifier, data.orElse(null)));
+            }
+
+            @Override
+            public void onRawEvent(Job job, int event, Object payload) {
+                dispatch(new Event(listener, job, event < 0 ? null : SystemJobEventName.of(event), payload));
+            }
+        };
+    }
+
+    /**
+     *
+     * @param listener
+     * @return raw listener to register instead of given one
+     */
+    public JobEventListener wrapRaw(RawJobEventListener listener) {
+        return wrap(JobEventListener.raw(listener));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     *
+     * @return how many events did not fit in the ring buffer
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    protected void dispatch(Event event) {
+        if (mode == Mode.OFFLOADED) {
+            int hash = event.job.hashCode();
+            lanes[(hash ^ (hash >>> 16)) & (lanes.length - 1)].add(event);
+        } else if (!ring.offer(event)) {
+            dropped.incrementAndGet();
+        } else if (draining.compareAndSet(false, true)) {
+            submit(this::drain);
+        }
+    }
+
+    protected void drain() {
+        do {
+            Event event;
+            while ((event = ring.poll()) != null) {
+                event.run();
+            }
+            draining.set(false);
+        } while (!ring.isEmpty() && draining.compareAndSet(false, true)); // published after last poll
+    }
+
+    protected void submit(Runnable run) {
+        try {
+            executor.execute(run);
+        } catch (RejectedExecutionException ex) {
+            run.run(); // executor is gone, don't lose events
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.laim0nas100.jobsystem.events;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ *
+ * Listener map that counts its changes, including changes of listener lists
+ * gotten from it, so {@link EventListeners} can tell when merged listeners
+ * are out of date.
+ *
+ * @author laim0nas100
+ */
+public class ListenerMap extends AbstractMap<Serializable, List<JobEventListener>> {
+
+    protected final Map<Serializable, List<JobEventListener>> map = new HashMap<>();
+    protected volatile int version;
+
+    public ListenerMap() {
+    }
+
+    public ListenerMap(Map<? extends Serializable, ? extends List<JobEventListener>> m) {
+        putAll(m);
+    }
+
+    /**
+     *
+     * @param map
+     * @return change count of given map, 0 if it is not a {@link ListenerMap}
+     */
+    public static int versionOf(Map<Serializable, List<JobEventListener>> map) {
+        return map instanceof ListenerMap ? ((ListenerMap) map).version : 0;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    protected void changed() {
+        version++;
+    }
+
+    protected class Listeners extends AbstractList<JobEventListener> {
+
+        protected final List<JobEventListener> list;
+
+        protected Listeners(List<JobEventListener> list) {
+            this.list = list;
+        }
+
+        protected ListenerMap owner() {
+            return ListenerMap.this;
+        }
+
+        @Override
+        public JobEventListener get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public JobEventListener set(int index, JobEventListener element) {
+            JobEventListener old = list.set(index, element);
+            changed();
+            return old;
+        }
+
+        @Override
+        public void add(int index, JobEventListener element) {
+            list.add(index, element);
+            changed();
+        }
+
+        @Override
+        public JobEventListener remove(int index) {
+            JobEventListener old = list.remove(index);
+            changed();
+            return old;
+        }
+    }
+
+    protected List<JobEventListener> wrap(List<JobEventListener> list) {
+        if (list == null || list instanceof Listeners && ((Listeners) list).owner() == this) {
+            return list;
+        }
+        return new Listeners(list);
+    }
+
+    @Override
+    public List<JobEventListener> get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public List<JobEventListener> put(Serializable key, List<JobEventListener> value) {
+        List<JobEventListener> old = map.put(key, wrap(Objects.requireNonNull(value)));
+        changed();
+        return old;
+    }
+
+    @Override
+    public List<JobEventListener> remove(Object key) {
+        List<JobEventListener> old = map.remove(key);
+        changed();
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        changed();
+    }
+
+    @Override
+    public List<JobEventListener> computeIfAbsent(Serializable key, Function<? super Serializable, ? extends List<JobEventListener>> mappingFunction) {
+        List<JobEventListener> list = map.get(key);
+        if (list == null) {
+            List<JobEventListener> created = mappingFunction.apply(key);
+            if (created != null) {
+                put(key, created);
+                list = map.get(key);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public Set<Entry<Serializable, List<JobEventListener>>> entrySet() {
+        return new AbstractSet<Entry<Serializable, List<JobEventListener>>>() {
+            @Override
+            public Iterator<Entry<Serializable, List<JobEventListener>>> iterator() {
+                Iterator<Entry<Serializable, List<JobEventListener>>> iterator = map.entrySet().iterator();
+                return new Iterator<Entry<Serializable, List<JobEventListener>>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<Serializable, List<JobEventListener>> next() {
+                        Entry<Serializable, List<JobEventListener>> entry = iterator.next();
+                        return new SimpleEntry<Serializable, List<JobEventListener>>(entry) {
+                            @Override
+                            public List<JobEventListener> setValue(List<JobEventListener> value) {
+                                super.setValue(value);
+                                List<JobEventListener> old = entry.setValue(wrap(Objects.requireNonNull(value)));
+                                changed();
+                                return old;
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                        changed();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.laim0nas100.jobsystem.events;
+
+import com.github.laim0nas100.jobsystem.Job;
+
+/**
+ *
+ * System event listener that gets event data as is, without wrapping it in
+ * {@link java.util.Optional}. Use {@link JobEventListener#raw(RawJobEventListener)}
+ * to register it.
+ *
+ * @author laim0nas100
+ */
+@FunctionalInterface
+public interface RawJobEventListener {
+
+    /**
+     *
+     * @param job
+     * @param event {@link SystemJobEventName} ordinal, -1 if event is not a
+     * system event
+     * @param payload event data, null if none
+     */
+    public void onRawEvent(Job job, int event, Object payload);
+}
@@ -25,6 +25,31 @@ public class SystemJobDependency extends AbstractJobDependency<SystemJobEventNam
         return isCompleted(job, classifier);
     }
 
+    /**
+     * Whether this dependency is either completed or impossible once its job
+     * becomes done, and never changes after that. Such dependencies can be
+     * counted down by {@link com.github.laim0nas100.jobsystem.JobExecutor}
+     * instead of being polled.
+     *
+     * @return
+     */
+    public boolean isSettledOnDone() {
+        return settledOnDone(classifier);
+    }
+
+    public static boolean settledOnDone(SystemJobEventName enumName) {
+        switch (enumName) {
+            case ON_DONE:
+            case ON_SUCCESSFUL:
+            case ON_EXCEPTIONAL:
+            case ON_INTERRUPTED:
+            case ON_ATTEMPTED: {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static boolean impossible(Job job, SystemJobEventName enumName) {
         switch (enumName) {
             case ON_FAILED_TO_START: {
@@ -63,6 +88,15 @@ public class SystemJobDependency extends AbstractJobDependency<SystemJobEventNam
             case ON_ATTEMPTED: {
                 return job.isAborted();
             }
+            case ON_DEADLINE_MISSED: {
+                return job.isDone() && !job.isDeadlineMissed();
+            }
+            case ON_RETRY: {
+                return job.isDone() && job.getAttempts() <= 1;
+            }
+            case ON_TIMEOUT: {
+                return job.isDone() && !job.isTimedOut();
+            }
         }
         throw new IllegalArgumentException("Failed to qualify enum " + enumName);
     }
@@ -105,6 +139,15 @@ public class SystemJobDependency extends AbstractJobDependency<SystemJobEventNam
             case ON_ATTEMPTED: {
                 return job.isAttempted();
             }
+            case ON_DEADLINE_MISSED: {
+                return job.isDeadlineMissed();
+            }
+            case ON_RETRY: {
+                return job.isRetrying() || job.getAttempts() > 1;
+            }
+            case ON_TIMEOUT: {
+                return job.isTimedOut();
+            }
         }
         throw new IllegalArgumentException("Failed to qualify enum " + enumName);
     }
@@ -75,7 +75,25 @@ public enum SystemJobEventName implements Serializable {
     /**
      * When Job starts actually starts and gets a Job thread. (running or done)
      */
-    ON_EXECUTE("onExecute");
+    ON_EXECUTE("onExecute"),
+    /**
+     * When Job deadline passes before it was executed or before it became
+     * done, detected by {@link lt.lb.jobsystem.JobExecutor}. Provides the
+     * missed event ({@link #ON_EXECUTE} or {@link #ON_DONE}) as data.
+     */
+    ON_DEADLINE_MISSED("onDeadlineMissed"),
+    /**
+     * When Job fails, but is going to run again by its
+     * {@link lt.lb.jobsystem.RetryPolicy}, instead of becoming exceptional.
+     * Provides {@link ExecutionException} as data.
+     */
+    ON_RETRY("onRetry", false),
+    /**
+     * When Job runs out of time, see
+     * {@link lt.lb.jobsystem.Job#setTimeout(long, java.util.concurrent.TimeUnit)}.
+     * Job gets cancelled with interrupt right after.
+     */
+    ON_TIMEOUT("onTimeout");
 
     /**
      * The event name;
@@ -88,6 +106,17 @@ public enum SystemJobEventName implements Serializable {
      */
     public final boolean oncePerJob;
 
+    private static final SystemJobEventName[] VALUES = values();
+
+    /**
+     *
+     * @param ordinal
+     * @return event with given ordinal
+     */
+    public static SystemJobEventName of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
     private SystemJobEventName(String eventName) {
         this(eventName, true);
     }
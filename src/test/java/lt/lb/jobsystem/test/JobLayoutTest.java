@@ -0,0 +1,55 @@
+package lt.lb.jobsystem.test;
+
+import com.github.laim0nas100.jobsystem.Job;
+import com.github.laim0nas100.jobsystem.events.SystemJobEventName;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ *
+ * @author laim0nas100
+ */
+public class JobLayoutTest {
+
+    public static long bytesPerJob(Job[] jobs) {
+        return GraphLayout.parseInstance((Object[]) jobs).totalSize() / jobs.length;
+    }
+
+    public static Job[] trivialJobs(int count) {
+        Job[] jobs = new Job[count];
+        for (int i = 0; i < jobs.length; i++) {
+            jobs[i] = new Job<>(Long.valueOf(1000 + i), j -> {
+            });
+        }
+        return jobs;
+    }
+
+    /**
+     * Measured 136 bytes with compressed oops: the job, its boxed id and its
+     * array slot. Some room is left for JVM layout differences.
+     */
+    public static final long MAX_BYTES_PER_TRIVIAL_JOB = 152;
+
+    @Test
+    public void trivialJobSizeTest() {
+        long bytes = bytesPerJob(trivialJobs(1000));
+        assert bytes <= MAX_BYTES_PER_TRIVIAL_JOB : bytes;
+    }
+
+    /**
+     * Listeners are created lazily, so a job that has none retains less than
+     * one that has.
+     */
+    @Test
+    public void lazyListenersTest() {
+        Job[] trivial = trivialJobs(1000);
+        Job[] listened = trivialJobs(1000);
+        for (Job job : listened) {
+            job.addListener(SystemJobEventName.ON_DONE, (j, c, d) -> {
+            });
+        }
+        long trivialBytes = bytesPerJob(trivial);
+        long listenedBytes = bytesPerJob(listened);
+        assert trivialBytes < listenedBytes : trivialBytes + " " + listenedBytes;
+    }
+}
@@ -1,22 +1,54 @@
 package lt.lb.jobsystem.test;
 
+import java.io.Serializable;
+import java.security.CodeSource;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import com.github.laim0nas100.jobsystem.AsyncJob;
 import com.github.laim0nas100.jobsystem.Dependencies;
 import com.github.laim0nas100.jobsystem.Job;
 import com.github.laim0nas100.jobsystem.JobExecutor;
+import com.github.laim0nas100.jobsystem.JobState;
+import com.github.laim0nas100.jobsystem.RetryPolicy;
 import com.github.laim0nas100.jobsystem.ScheduledJobExecutor;
+import com.github.laim0nas100.jobsystem.ShardedJobExecutor;
+import com.github.laim0nas100.jobsystem.TimerWheel;
 import com.github.laim0nas100.jobsystem.dependency.Dependency;
 import com.github.laim0nas100.jobsystem.dependency.MutuallyExclusivePoint;
 import com.github.laim0nas100.jobsystem.dependency.MutuallyExclusivePointCAS;
+import com.github.laim0nas100.jobsystem.dependency.MutuallyExclusivePointFIFO;
+import com.github.laim0nas100.jobsystem.dependency.ObservableDependency;
+import com.github.laim0nas100.jobsystem.dependency.ResourcePool;
+import com.github.laim0nas100.jobsystem.events.EventListeners;
+import com.github.laim0nas100.jobsystem.events.JobEventListener;
+import com.github.laim0nas100.jobsystem.events.JobEventStream;
+import com.github.laim0nas100.jobsystem.events.ListenerDispatcher;
 import com.github.laim0nas100.jobsystem.events.SystemJobEventName;
 import org.junit.Test;
 
@@ -50,8 +82,16 @@ public class JobTest {
     }
 
     public static void doIncrement(int jobs, Consumer<ArrayList<Job>> jobDepModifier) throws InterruptedException {
+        doIncrement(jobs, false, jobDepModifier);
+    }
+
+    public static void doIncrement(int jobs, boolean indexed, Consumer<ArrayList<Job>> jobDepModifier) throws InterruptedException {
+        doIncrement(jobs, exe -> new JobExecutor(2, 2, indexed, exe), jobDepModifier);
+    }
+
+    public static void doIncrement(int jobs, Function<Executor, JobExecutor> executorMaker, Consumer<ArrayList<Job>> jobDepModifier) throws InterruptedException {
         ExecutorService exeServ = Executors.newFixedThreadPool(8);
-        JobExecutor executor = new JobExecutor(exeServ);
+        JobExecutor executor = executorMaker.apply(exeServ);
         Random rng = new Random();
 
         ArrayList<Job> jobList = new ArrayList<>();
@@ -86,6 +126,1051 @@ public class JobTest {
         doIncrement(100, jobs -> Dependencies.forwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL));
     }
 
+    @Test
+    public void incrementIndexedTest() throws InterruptedException {
+        doIncrement(100, true, jobs -> Dependencies.mutuallyExclusive(jobs));
+        doIncrement(100, true, jobs -> Dependencies.backwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL));
+        doIncrement(1000, true, jobs -> Dependencies.forwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL));
+    }
+
+    @Test
+    public void incrementShardedTest() throws InterruptedException {
+        doIncrement(100, exe -> new ShardedJobExecutor(4, exe), jobs -> Dependencies.mutuallyExclusive(jobs));
+        doIncrement(100, exe -> new ShardedJobExecutor(4, exe), jobs -> Dependencies.backwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL));
+        doIncrement(1000, exe -> new ShardedJobExecutor(4, exe), jobs -> Dependencies.forwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL));
+    }
+
+    @Test
+    public void incrementContinuationTest() throws InterruptedException {
+        doIncrement(100, exe -> new JobExecutor(2, 2, true, exe).setContinuationLimit(16), jobs -> Dependencies.mutuallyExclusive(jobs));
+        doIncrement(1000, exe -> new JobExecutor(2, 2, true, exe).setContinuationLimit(16), jobs -> Dependencies.forwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL));
+        doIncrement(1000, exe -> new ShardedJobExecutor(4, exe).setContinuationLimit(16), jobs -> Dependencies.forwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL));
+    }
+
+    @Test
+    public void continuationThreadTest() throws InterruptedException {
+        // every task gets a new thread, so only a job run inline shares the thread of the job before it
+        Executor threadPerTask = run -> new Thread(run).start();
+        int limit = 4;
+        JobExecutor executor = new JobExecutor(2, 2, true, threadPerTask).setContinuationLimit(limit);
+        Thread[] threads = new Thread[40];
+        CountDownLatch submitted = new CountDownLatch(1);
+        ArrayList<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            jobList.add(new Job<>(() -> {
+                if (index == 0) {
+                    submitted.await(); // dependents are ready only after it runs
+                }
+                threads[index] = Thread.currentThread();
+                return null;
+            }));
+        }
+        Dependencies.forwardChain(jobList, SystemJobEventName.ON_SUCCESSFUL);
+        executor.submitAll(jobList);
+        submitted.countDown();
+
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        for (int i = 1; i < threads.length; i++) {
+            assert (threads[i] == threads[i - 1]) == (i % limit != 0) : i;
+        }
+    }
+
+    @Test
+    public void continuationSubmitFromJobTest() throws InterruptedException, ExecutionException, TimeoutException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(2);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ).setContinuationLimit(16);
+        Job<Integer> parent = new Job<>(() -> {
+            Job<Integer> child = new Job<>(() -> 1);
+            executor.submit(child);
+            return child.get(10, TimeUnit.SECONDS) + 1; // child must not wait for the parent to finish
+        });
+        executor.submit(parent);
+
+        assert parent.get(1, TimeUnit.MINUTES) == 2;
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void workStealingTest() throws InterruptedException {
+        JobExecutor executor = JobExecutor.ofWorkStealing(4);
+        LongHolder val = new LongHolder(0L);
+        ArrayList<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            jobList.add(incrementJob(val, 10));
+        }
+        Dependencies.forwardChain(jobList, SystemJobEventName.ON_SUCCESSFUL);
+        executor.submitAll(jobList);
+
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert val.numb == 10000;
+
+        // jobs made ready on a worker are forked, only the first one is passed to execute
+        AtomicInteger executed = new AtomicInteger(0);
+        ForkJoinPool pool = new ForkJoinPool(4) {
+            @Override
+            public void execute(Runnable task) {
+                if (task instanceof Job) {
+                    executed.incrementAndGet();
+                }
+                super.execute(task);
+            }
+        };
+        Executor[] ranOn = runChain(new JobExecutor(2, 2, true, pool), 100);
+        assert Arrays.stream(ranOn).allMatch(exe -> exe == pool);
+        assert executed.get() == 1 : executed.get();
+        pool.shutdown();
+
+        // other executors still get every job through execute
+        ExecutorService exeServ = Executors.newFixedThreadPool(4);
+        AtomicInteger passed = new AtomicInteger(0);
+        Executor counting = run -> {
+            if (run instanceof Job) {
+                passed.incrementAndGet();
+            }
+            exeServ.execute(run);
+        };
+        ranOn = runChain(new JobExecutor(2, 2, true, counting), 100);
+        assert Arrays.stream(ranOn).allMatch(Objects::isNull);
+        assert passed.get() == 100 : passed.get();
+        exeServ.shutdown();
+    }
+
+    /**
+     * Runs a chain of jobs, first one waits until every job is submitted.
+     *
+     * @param executor
+     * @param count
+     * @return fork join pool each job ran in, null if none
+     * @throws InterruptedException
+     */
+    public static Executor[] runChain(JobExecutor executor, int count) throws InterruptedException {
+        Executor[] ranOn = new Executor[count];
+        CountDownLatch submitted = new CountDownLatch(1);
+        ArrayList<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            jobList.add(new Job<>(() -> {
+                if (index == 0) {
+                    submitted.await();
+                }
+                ranOn[index] = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : null;
+                return null;
+            }));
+        }
+        Dependencies.forwardChain(jobList, SystemJobEventName.ON_SUCCESSFUL);
+        executor.submitAll(jobList);
+        submitted.countDown();
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        return ranOn;
+    }
+
+    /**
+     * Java 21 classes are only found in the multi-release jar, not in exploded
+     * classes.
+     *
+     * @return whether virtual threads should be supported
+     */
+    public static boolean expectVirtualThreads() {
+        String spec = System.getProperty("java.specification.version");
+        if (spec.startsWith("1.") || Integer.parseInt(spec) < 21) {
+            return false;
+        }
+        CodeSource source = JobExecutor.class.getProtectionDomain().getCodeSource();
+        return source != null && source.getLocation().getPath().endsWith(".jar");
+    }
+
+    @Test
+    public void virtualThreadsTest() throws InterruptedException {
+        assert JobExecutor.isVirtualThreadsSupported() == expectVirtualThreads();
+        if (!JobExecutor.isVirtualThreadsSupported()) {
+            try {
+                JobExecutor.ofVirtualThreads();
+                assert false;
+            } catch (UnsupportedOperationException ex) {
+            }
+            return;
+        }
+        JobExecutor executor = JobExecutor.ofVirtualThreads();
+        AtomicInteger ran = new AtomicInteger(0);
+        ArrayList<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            jobList.add(new Job(j -> {
+                LockSupport.parkNanos(1000000); // blocking work
+                if (Thread.currentThread().getName().startsWith("job-")) {
+                    ran.incrementAndGet();
+                }
+            }));
+        }
+        executor.submitAll(jobList);
+
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert ran.get() == 1000; // every job on a virtual thread
+    }
+
+    @Test
+    public void asyncJobTest() throws InterruptedException, ExecutionException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(1);
+        ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ);
+        ArrayList<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int value = i;
+            jobList.add(new AsyncJob<>(j -> {
+                CompletableFuture<Integer> future = new CompletableFuture<>();
+                io.schedule(() -> future.complete(value), 50, TimeUnit.MILLISECONDS);
+                return future;
+            }));
+        }
+        AsyncJob<Integer> failing = new AsyncJob<>(j -> {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            io.execute(() -> future.completeExceptionally(new IllegalStateException("failed")));
+            return future;
+        });
+        Job dependent = new Job(j -> {
+        });
+        failing.chainForward(dependent);
+        jobList.add(failing);
+        jobList.add(dependent);
+        long start = System.nanoTime();
+        executor.submitAll(jobList);
+
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        // a single worker thread is not blocked while waiting
+        assert TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000;
+        for (int i = 0; i < 50; i++) {
+            assert jobList.get(i).isSuccessfull();
+            assert Objects.equals(jobList.get(i).get(), i);
+        }
+        assert failing.isExceptional();
+        assert dependent.isDiscarded() && !dependent.isExecuted();
+        exeServ.shutdown();
+        io.shutdown();
+    }
+
+    @Test
+    public void retryTest() throws InterruptedException, ExecutionException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(4);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ);
+        RetryPolicy policy = new RetryPolicy(4, 5, TimeUnit.MILLISECONDS)
+                .setRetryOn(e -> e instanceof IllegalStateException);
+        AtomicInteger calls = new AtomicInteger(0);
+        Job<Integer> flaky = new Job<>((Job<Integer> j) -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new IllegalStateException("flaky");
+            }
+            return 42;
+        });
+        AtomicInteger retries = new AtomicInteger(0);
+        AtomicInteger exceptional = new AtomicInteger(0);
+        flaky.setRetryPolicy(policy);
+        flaky.addListener(SystemJobEventName.ON_RETRY, (j, c, d) -> retries.incrementAndGet());
+        flaky.addListener(SystemJobEventName.ON_EXCEPTIONAL, (j, c, d) -> exceptional.incrementAndGet());
+        Job afterFlaky = new Job(j -> {
+        });
+        flaky.chainForward(afterFlaky);
+
+        Job broken = new Job<>(() -> {
+            throw new IllegalStateException("broken");
+        }).setRetryPolicy(policy);
+        Job afterBroken = new Job(j -> {
+        });
+        broken.chainForward(SystemJobEventName.ON_EXCEPTIONAL, afterBroken);
+        Job notRetryable = new Job<>(() -> {
+            throw new IllegalArgumentException("not retryable");
+        }).setRetryPolicy(policy);
+        AsyncJob<Integer> async = new AsyncJob<>(j -> {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            if (j.getAttempts() == 1) {
+                future.completeExceptionally(new IllegalStateException("async"));
+            } else {
+                future.complete(j.getAttempts());
+            }
+            return future;
+        });
+        async.setRetryPolicy(policy);
+        Job cancelled = new Job<>(() -> {
+            throw new IllegalStateException("cancelled");
+        }).setRetryPolicy(new RetryPolicy(2, 1, TimeUnit.MINUTES));
+        cancelled.addListener(SystemJobEventName.ON_RETRY, (j, c, d) -> cancelled.cancel());
+
+        CompletableFuture<Integer> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return flaky.get();
+            } catch (Exception ex) {
+                return -1;
+            }
+        });
+        executor.submitAll(flaky, afterFlaky, broken, afterBroken, notRetryable, async, cancelled);
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert flaky.isSuccessfull() && flaky.getAttempts() == 3 && flaky.get() == 42;
+        assert retries.get() == 2 && exceptional.get() == 0;
+        assert result.get() == 42;
+        assert afterFlaky.isSuccessfull();
+        assert broken.isExceptional() && broken.getAttempts() == 4;
+        assert afterBroken.isSuccessfull();
+        assert notRetryable.isExceptional() && notRetryable.getAttempts() == 1;
+        assert async.isSuccessfull() && async.get() == 2;
+        assert cancelled.isCancelled() && cancelled.isDone() && cancelled.getAttempts() == 2;
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void timeoutTest() throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(4);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ);
+        AtomicInteger timeoutEvents = new AtomicInteger(0);
+        Job hung = new Job(j -> {
+            LockSupport.parkNanos(TimeUnit.MINUTES.toNanos(1));
+        }).setTimeout(50, TimeUnit.MILLISECONDS);
+        hung.addListener(SystemJobEventName.ON_TIMEOUT, (j, c, d) -> timeoutEvents.incrementAndGet());
+        Job dependent = new Job(j -> {
+        });
+        hung.chainForward(dependent);
+        AsyncJob<Integer> never = new AsyncJob<>(j -> new CompletableFuture<>());
+        never.setTimeout(50, TimeUnit.MILLISECONDS);
+        Job fast = new Job(j -> {
+        }).setTimeout(1, TimeUnit.MINUTES);
+        long start = System.nanoTime();
+        executor.submitAll(hung, dependent, never, fast);
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30);
+        assert hung.isTimedOut() && hung.isCancelled() && hung.isDone();
+        assert timeoutEvents.get() == 1;
+        assert dependent.isDiscarded() && !dependent.isExecuted();
+        assert never.isTimedOut() && never.isDone();
+        assert fast.isSuccessfull() && !fast.isTimedOut();
+        assert executor.getTimedOut() == 2;
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void cancelPropagationTest() throws InterruptedException {
+        List<Job> chain = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            chain.add(new Job(j -> {
+            }));
+        }
+        Dependencies.forwardChain(chain, SystemJobEventName.ON_SUCCESSFUL);
+        chain.get(0).cancel();
+        for (int i = 1; i < chain.size(); i++) {
+            Job job = chain.get(i);
+            assert job.isCancelled();
+            assert job.getCanceledRoot().get() == chain.get(0);
+        }
+        List<Job> canceledChain = chain.get(chain.size() - 1).getCanceledChain();
+        Collections.reverse(canceledChain);
+        assert canceledChain.equals(chain);
+
+        ExecutorService exeServ = Executors.newFixedThreadPool(4);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ).setCancelFanOut(64);
+        List<Job> tree = new ArrayList<>();
+        List<Job> parents = new ArrayList<>();
+        tree.add(new Job(j -> {
+        }).addDependency(Dependencies.observable(() -> false)));
+        parents.add(null);
+        for (int i = 1; i < 20000; i++) {
+            Job parent = tree.get((i - 1) / 4);
+            Job job = new Job(j -> {
+            });
+            parent.chainForward(job);
+            tree.add(job);
+            parents.add(parent);
+        }
+        executor.submitGraph(tree);
+        tree.get(0).cancel();
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        exeServ.shutdown();
+        assert exeServ.awaitTermination(1, TimeUnit.MINUTES); // fanned out cancellation
+        for (int i = 1; i < tree.size(); i++) {
+            Job job = tree.get(i);
+            assert job.isCancelled() && job.isDiscarded() && !job.isExecuted();
+            assert job.getCanceledRoot().get() == tree.get(0);
+            assert job.getCanceledChain().get(1) == parents.get(i);
+        }
+    }
+
+    @Test
+    public void systemListenerTableTest() {
+        List<String> calls = new ArrayList<>();
+        EventListeners listeners = new EventListeners();
+        listeners.add(SystemJobEventName.ON_DONE, (j, c, d) -> calls.add("own"));
+        Map<Serializable, List<JobEventListener>> executorMap = new HashMap<>();
+        executorMap.put(SystemJobEventName.ON_DONE, Arrays.asList((j, c, d) -> calls.add("executor")));
+        listeners.assignJobExecutorMap(executorMap);
+        JobEventListener[] done = listeners.getSystem(SystemJobEventName.ON_DONE);
+        assert done == listeners.getSystem(SystemJobEventName.ON_DONE); // kept, no merging on every get
+        assert done.length == 2;
+        for (JobEventListener listener : done) {
+            listener.onEvent(null, SystemJobEventName.ON_DONE, Optional.empty());
+        }
+        assert calls.equals(Arrays.asList("executor", "own"));
+        assert listeners.getSystem(SystemJobEventName.ON_EXECUTE).length == 0;
+        listeners.add(SystemJobEventName.ON_DONE, (j, c, d) -> calls.add("added"));
+        assert listeners.getSystem(SystemJobEventName.ON_DONE).length == 3;
+    }
+
+    @Test
+    public void rawListenerTest() throws InterruptedException, ExecutionException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(2);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ);
+        List<Object> raw = new ArrayList<>();
+        List<Object> wrapped = new ArrayList<>();
+        Job<String> job = new Job<>(() -> "result");
+        job.addListener(SystemJobEventName.ON_SUCCESSFUL, JobEventListener.raw((j, e, p) -> {
+            raw.add(SystemJobEventName.of(e));
+            raw.add(p);
+        }));
+        job.addListener(SystemJobEventName.ON_SUCCESSFUL, (j, c, d) -> {
+            wrapped.add(c);
+            wrapped.add(d);
+        });
+        executor.submit(job);
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        exeServ.shutdown();
+        assert job.get().equals("result");
+        assert raw.equals(Arrays.asList(SystemJobEventName.ON_SUCCESSFUL, "result"));
+        assert wrapped.equals(Arrays.asList(SystemJobEventName.ON_SUCCESSFUL, Optional.of("result")));
+    }
+
+    @Test
+    public void listenerDispatcherTest() throws InterruptedException {
+        for (ListenerDispatcher.Mode mode : ListenerDispatcher.Mode.values()) {
+            ExecutorService exeServ = Executors.newFixedThreadPool(4);
+            ExecutorService listenerServ = Executors.newFixedThreadPool(2);
+            ListenerDispatcher dispatcher = new ListenerDispatcher(mode, listenerServ, 1024);
+            JobExecutor executor = new JobExecutor(2, 2, true, exeServ);
+            CountDownLatch release = new CountDownLatch(mode == ListenerDispatcher.Mode.INLINE ? 0 : 1);
+            Map<Job, List<Object>> seen = new ConcurrentHashMap<>();
+            JobEventListener record = dispatcher.wrapRaw((j, e, p) -> {
+                seen.computeIfAbsent(j, k -> Collections.synchronizedList(new ArrayList<>())).add(SystemJobEventName.of(e));
+            });
+            JobEventListener slow = dispatcher.wrap((j, c, d) -> {
+                try {
+                    release.await(); // job finishes regardless
+                } catch (InterruptedException ex) {
+                }
+            });
+            List<Job> jobs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Job job = new Job(j -> {
+                });
+                job.addListener(SystemJobEventName.ON_EXECUTE, record);
+                job.addListener(SystemJobEventName.ON_SUCCESSFUL, record);
+                job.addListener(SystemJobEventName.ON_DONE, slow);
+                job.addListener(SystemJobEventName.ON_DONE, record);
+                jobs.add(job);
+            }
+            executor.submitAll(jobs);
+            assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+            release.countDown();
+            listenerServ.shutdown();
+            assert listenerServ.awaitTermination(1, TimeUnit.MINUTES);
+            exeServ.shutdown();
+            assert dispatcher.getDropped() == 0;
+            List<Object> order = Arrays.asList(SystemJobEventName.ON_EXECUTE, SystemJobEventName.ON_SUCCESSFUL, SystemJobEventName.ON_DONE);
+            for (Job job : jobs) {
+                assert order.equals(seen.get(job)) : mode + " " + seen.get(job);
+            }
+        }
+    }
+
+    @Test
+    public void eventStreamTest() throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(4);
+        ExecutorService streamServ = Executors.newSingleThreadExecutor();
+        AtomicInteger executed = new AtomicInteger(0);
+        AtomicInteger done = new AtomicInteger(0);
+        AtomicInteger batches = new AtomicInteger(0);
+        JobEventStream stream = new JobEventStream(4096, streamServ, (job, event, payload, endOfBatch) -> {
+            if (event == SystemJobEventName.ON_EXECUTE) {
+                executed.incrementAndGet();
+            } else if (event == SystemJobEventName.ON_DONE) {
+                done.incrementAndGet();
+            } else {
+                throw new IllegalStateException("Not accepted " + event);
+            }
+            if (endOfBatch) {
+                batches.incrementAndGet();
+            }
+        }).setEvents(EnumSet.of(SystemJobEventName.ON_EXECUTE, SystemJobEventName.ON_DONE));
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ).addEventStream(stream);
+        for (int i = 0; i < 500; i++) {
+            executor.submit(new Job(j -> {
+            }));
+        }
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        exeServ.shutdown();
+        while (!stream.isIdle()) {
+            Thread.sleep(1);
+        }
+        streamServ.shutdown();
+        assert stream.getDropped() == 0;
+        assert stream.getFailed() == 0;
+        assert executed.get() == 500 : executed.get();
+        assert done.get() == 500 : done.get();
+        assert batches.get() >= 1 && batches.get() <= 1000;
+    }
+
+    public static void doGraph(Function<Executor, JobExecutor> executorMaker) throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(8);
+        JobExecutor executor = executorMaker.apply(exeServ);
+        Random rng = new Random();
+        AtomicInteger violations = new AtomicInteger(0);
+        AtomicInteger executed = new AtomicInteger(0);
+        List<Job> graph = new ArrayList<>();
+        List<Job> previous = new ArrayList<>();
+        for (int layer = 0; layer < 20; layer++) {
+            List<Job> current = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                List<Job> upstream = new ArrayList<>();
+                Job job = new Job(j -> {
+                    if (!upstream.stream().allMatch(Job::isSuccessfull)) {
+                        violations.incrementAndGet();
+                    }
+                    executed.incrementAndGet();
+                });
+                for (int d = 0; d < 3 && !previous.isEmpty(); d++) {
+                    Job up = previous.get(rng.nextInt(previous.size()));
+                    upstream.add(up);
+                    job.chainBackward(up);
+                }
+                current.add(job);
+            }
+            graph.addAll(current);
+            previous = current;
+        }
+        Collections.shuffle(graph);
+        executor.submitGraph(graph);
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        exeServ.shutdown();
+        assert violations.get() == 0;
+        assert executed.get() == graph.size();
+    }
+
+    @Test
+    public void submitGraphTest() throws InterruptedException {
+        doGraph(exe -> new JobExecutor(exe));
+        doGraph(exe -> new JobExecutor(2, 2, true, exe));
+        doGraph(exe -> new ShardedJobExecutor(4, exe).setDeadlineDispatch(4));
+
+        JobExecutor executor = new JobExecutor(Executors.newSingleThreadExecutor());
+        Job valid = new Job(j -> {
+        });
+        Job selfDependent = new Job(j -> {
+        });
+        selfDependent.chainBackward(selfDependent);
+        try {
+            executor.submitGraph(Arrays.asList(valid, selfDependent));
+            assert false;
+        } catch (IllegalArgumentException ex) {
+        }
+        assert executor.isEmpty() && !valid.isScheduled();
+        executor.shutdown();
+    }
+
+    @Test
+    public void graphCheckTest() throws InterruptedException {
+        for (JobExecutor.GraphCheck check : EnumSet.of(JobExecutor.GraphCheck.REJECT, JobExecutor.GraphCheck.DISCARD)) {
+            ExecutorService exeServ = Executors.newFixedThreadPool(4);
+            JobExecutor executor = new JobExecutor(2, 2, true, exeServ).setGraphCheck(check);
+            List<Job> jobs = new ArrayList<>();
+            for (int i = 0; i < 11; i++) {
+                jobs.add(new Job(j -> {
+                }));
+            }
+            Job external = new Job(j -> {
+            });
+            Job unsubmitted = new Job(j -> {
+            });
+            Dependencies.forwardChain(jobs.subList(0, 3), SystemJobEventName.ON_SUCCESSFUL);
+            jobs.get(0).chainBackward(jobs.get(2)); // cycle 0 -> 1 -> 2 -> 0
+            jobs.get(3).chainBackward(jobs.get(0)); // depends on cycle
+            jobs.get(4).chainBackward(external); // submitted separately
+            jobs.get(6).chainBackward(jobs.get(5));
+            jobs.get(7).addDependency(Dependencies.whileNotExecuting(jobs.get(8))); // doesn't wait for done
+            jobs.get(8).addDependency(Dependencies.whileNotExecuting(jobs.get(7)));
+            jobs.get(9).chainBackward(unsubmitted); // never submitted
+            jobs.get(10).chainBackward(jobs.get(9));
+            List<Job> unrunnable = new ArrayList<>(jobs.subList(0, 4));
+            unrunnable.addAll(jobs.subList(9, 11));
+            List<Job> runnable = jobs.subList(4, 9);
+            assert Dependencies.findUnrunnable(jobs).contains(jobs.get(4)); // until external is submitted
+            executor.submit(external);
+            assert Dependencies.findUnrunnable(jobs).equals(unrunnable);
+            if (check == JobExecutor.GraphCheck.REJECT) {
+                try {
+                    executor.submitAll(jobs);
+                    assert false;
+                } catch (IllegalArgumentException ex) {
+                }
+                assert executor.shutdownAndWait(1, TimeUnit.MINUTES); // nothing of the batch is waiting
+                assert jobs.stream().noneMatch(Job::isExecuted);
+            } else {
+                executor.submitAll(jobs);
+                assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+                assert unrunnable.stream().allMatch(j -> j.isDiscarded() && !j.isExecuted());
+                assert runnable.stream().allMatch(Job::isSuccessfull);
+                assert executor.getDiscardedUnrunnable() == 6;
+            }
+            executor.shutdown();
+            exeServ.shutdown();
+        }
+    }
+
+    @Test
+    public void delayTest() throws InterruptedException {
+        for (boolean indexed : new boolean[]{false, true}) {
+            ExecutorService exeServ = Executors.newFixedThreadPool(4);
+            JobExecutor executor = new JobExecutor(2, 2, indexed, exeServ);
+            Random rng = new Random();
+            AtomicInteger early = new AtomicInteger(0);
+            List<Job> jobs = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                List<Job> self = new ArrayList<>(1);
+                Job job = new Job(j -> {
+                    if (self.get(0).isDelayed()) {
+                        early.incrementAndGet();
+                    }
+                });
+                self.add(job);
+                jobs.add(job.setDelay(rng.nextInt(200), TimeUnit.MILLISECONDS));
+            }
+            Dependencies.forwardChain(jobs.subList(0, 10), SystemJobEventName.ON_SUCCESSFUL);
+            long start = System.nanoTime();
+            executor.submitAll(jobs);
+            assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+            assert jobs.stream().allMatch(Job::isSuccessfull);
+            assert early.get() == 0;
+            assert System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5); // no periodic rescan needed
+            exeServ.shutdown();
+        }
+
+        TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 8);
+        CountDownLatch fired = new CountDownLatch(2);
+        AtomicInteger cancelledRuns = new AtomicInteger(0);
+        long start = System.nanoTime();
+        timer.schedule(fired::countDown, 5, TimeUnit.MILLISECONDS);
+        timer.schedule(fired::countDown, 30, TimeUnit.MILLISECONDS); // few rounds
+        timer.schedule(cancelledRuns::incrementAndGet, 10, TimeUnit.MILLISECONDS).cancel();
+        assert fired.await(1, TimeUnit.MINUTES);
+        assert System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30);
+        Thread.sleep(20);
+        assert cancelledRuns.get() == 0;
+    }
+
+    @Test
+    public void observableDependencyTest() throws InterruptedException {
+        for (boolean indexed : new boolean[]{false, true}) {
+            ExecutorService exeServ = Executors.newFixedThreadPool(4);
+            JobExecutor executor = new JobExecutor(2, 2, indexed, exeServ);
+            AtomicInteger counter = new AtomicInteger(0);
+            ObservableDependency enough = Dependencies.observable(() -> counter.get() >= 10);
+            List<Job> jobs = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                jobs.add(new Job(j -> {
+                }).addDependency(enough));
+            }
+            executor.submitAll(jobs);
+            for (int i = 0; i < 10; i++) {
+                Thread.sleep(5);
+                assert jobs.stream().noneMatch(Job::isExecuted);
+                counter.incrementAndGet();
+                enough.changed();
+            }
+            assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+            assert jobs.stream().allMatch(Job::isSuccessfull);
+            exeServ.shutdown();
+        }
+    }
+
+    @Test
+    public void priorityTest() throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(4);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ).setPriorityDispatch(1, 0, TimeUnit.SECONDS);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(new Job(j -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ex) {
+            }
+        }));
+        started.await(); // occupy the only slot before the rest are queued
+        Random rng = new Random();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        ArrayList<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int priority = rng.nextInt(10);
+            Job job = new Job(j -> {
+                order.add(priority);
+            });
+            jobList.add(job.setPriority(priority));
+        }
+        executor.submitAll(jobList);
+        while (!jobList.stream().allMatch(Job::isScheduled)) {
+            Thread.sleep(1);
+        }
+        gate.countDown();
+
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        for (int i = 1; i < order.size(); i++) {
+            assert order.get(i - 1) >= order.get(i);
+        }
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void deadlineTest() throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(4);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ)
+                .setDeadlineDispatch(1)
+                .setDiscardMissedDeadlines(true);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(new Job(j -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ex) {
+            }
+        }));
+        started.await(); // occupy the only slot before the rest are queued
+        Random rng = new Random();
+        List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        ArrayList<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Job<Object> job = new Job<>((Job<Object> j) -> {
+                order.add(j.getDeadline());
+            });
+            jobList.add(job.setDeadline(rng.nextInt(1000) + 60, TimeUnit.SECONDS));
+        }
+        AtomicLong missedEvents = new AtomicLong(0);
+        Job late = new Job(j -> {
+        });
+        late.setDeadline(1, TimeUnit.MILLISECONDS);
+        late.addListener(SystemJobEventName.ON_DEADLINE_MISSED, (j, c, d) -> missedEvents.incrementAndGet());
+        jobList.add(late);
+        executor.submitAll(jobList);
+        while (!jobList.stream().allMatch(Job::isScheduled)) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(5);
+        gate.countDown();
+
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert order.size() == 50;
+        for (int i = 1; i < order.size(); i++) {
+            assert order.get(i - 1) <= order.get(i);
+        }
+        exeServ.shutdown();
+        assert exeServ.awaitTermination(1, TimeUnit.MINUTES);
+        assert late.isDiscarded() && !late.isExecuted() && late.isDeadlineMissed();
+        assert missedEvents.get() == 1;
+        assert executor.getMissedBeforeExecute() == 1;
+        assert executor.getDiscardedMissedDeadlines() == 1;
+    }
+
+    @Test
+    public void indexedDiscardTest() throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(8);
+        JobExecutor executor = new JobExecutor(2, 2, true, exeServ);
+        ArrayList<Job> jobList = new ArrayList<>();
+        jobList.add(new Job(() -> {
+            throw new IllegalStateException("first job fails");
+        }));
+        LongHolder val = new LongHolder(0L);
+        for (int i = 0; i < 10000; i++) {
+            jobList.add(incrementJob(val, 1));
+        }
+        Dependencies.forwardChain(jobList, SystemJobEventName.ON_SUCCESSFUL);
+        executor.submitAll(jobList);
+
+        assert executor.awaitJobEmptiness(1, TimeUnit.MINUTES);
+        assert val.numb == 0;
+        assert jobList.stream().skip(1).allMatch(j -> j.isDiscarded() && !j.isExecuted());
+        executor.shutdown();
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void singleThreadScanTest() throws InterruptedException {
+        for (boolean indexed : new boolean[]{false, true}) {
+            ExecutorService exeServ = Executors.newFixedThreadPool(1);
+            JobExecutor executor = new JobExecutor(2, 2, indexed, exeServ);
+            LongHolder val = new LongHolder(0L);
+            ArrayList<Job> jobList = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                jobList.add(incrementJob(val, 1));
+            }
+            Dependencies.forwardChain(jobList, SystemJobEventName.ON_SUCCESSFUL);
+            executor.submitAll(jobList);
+            // scans must not keep chaining each other on the only thread
+            assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+            assert val.numb == 200;
+            exeServ.shutdown();
+        }
+    }
+
+    @Test
+    public void exclusivePointStaleDibsTest() {
+        Job holder = new Job(j -> {
+        });
+        Job contender = new Job(j -> {
+        });
+        MutuallyExclusivePointCAS point = new MutuallyExclusivePointCAS() {
+            {
+                // dibs were handed back to the holder after it finished
+                dibsed.set(holder);
+                scheduled.set(holder);
+            }
+        };
+        point.addSharingJob(holder);
+        point.addSharingJob(contender);
+        holder.cancel();
+        assert holder.isRemovable();
+        assert point.isCompleted(contender);
+    }
+
+    @Test
+    public void duplicateIdTest() throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(2);
+        JobExecutor executor = new JobExecutor(2, 2, false, exeServ);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger(0);
+        Job<Boolean> first = new Job<>("same", () -> {
+            runs.incrementAndGet();
+            return release.await(1, TimeUnit.MINUTES);
+        });
+        Job second = new Job("same", j -> {
+            runs.incrementAndGet();
+        });
+        executor.submit(first);
+        executor.submit(first); // same job again is ignored
+        boolean rejected = false;
+        try {
+            executor.submit(second);
+        } catch (IllegalArgumentException ex) {
+            rejected = true;
+        }
+        assert rejected;
+        release.countDown();
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert runs.get() == 1;
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void submissionOrderTest() throws InterruptedException {
+        ExecutorService exeServ = Executors.newFixedThreadPool(1);
+        JobExecutor executor = new JobExecutor(2, 2, false, exeServ);
+        CountDownLatch release = new CountDownLatch(1);
+        exeServ.execute(() -> {
+            try {
+                release.await(); // hold the only thread until everything is submitted
+            } catch (InterruptedException ex) {
+            }
+        });
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 500; i++) {
+            int index = i;
+            executor.submit(new Job(j -> {
+                order.add(index);
+            }));
+        }
+        release.countDown();
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert order.size() == 500;
+        for (int i = 0; i < 500; i++) {
+            assert order.get(i) == i;
+        }
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void settledBeforeWaitTest() throws Exception {
+        Job<Integer> job = new Job<Integer>(() -> 1) {
+            @Override
+            protected CountDownLatch waiters() {
+                settle(5); // settled after get() saw no outcome, before latch is installed
+                return super.waiters();
+            }
+        };
+        CompletableFuture<Integer> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return job.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        assert result.get(1, TimeUnit.MINUTES) == 5;
+    }
+
+    @Test
+    public void lateExecutorListenerTest() throws Exception {
+        ExecutorService exeServ = Executors.newFixedThreadPool(2);
+        JobExecutor executor = new JobExecutor(2, 2, false, exeServ);
+        Job first = new Job(j -> {
+        });
+        CountDownLatch firstDone = new CountDownLatch(1);
+        first.addListener(SystemJobEventName.ON_DONE, (j, c, d) -> {
+            firstDone.countDown(); // runs after executor listeners, merged ones are cached by now
+        });
+        executor.submit(first);
+        assert firstDone.await(1, TimeUnit.MINUTES);
+        assert executor.getSharedListeners().getSystem(SystemJobEventName.ON_DONE).length > 0;
+        AtomicInteger fired = new AtomicInteger(0);
+        executor.getExecutorJobListeners().get(SystemJobEventName.ON_DONE).add((j, c, d) -> {
+            fired.incrementAndGet();
+        });
+        executor.getExecutorJobListeners().computeIfAbsent(SystemJobEventName.ON_CANCEL, k -> new ArrayList<>()).add((j, c, d) -> {
+            fired.incrementAndGet();
+        });
+        Job shared = new Job(j -> {
+        });
+        Job own = new Job(j -> {
+        });
+        own.addListener(SystemJobEventName.ON_DONE, (j, c, d) -> {
+        });
+        executor.submitAll(shared, own);
+        assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+        assert fired.get() == 2 : fired.get();
+        exeServ.shutdown();
+    }
+
+    @Test
+    public void stateCountersTest() {
+        Job job = new Job(j -> {
+        }) {
+            {
+                setFlag(JobState.DONE | JobState.TIMED_OUT);
+                for (int i = 0; i < 300; i++) {
+                    incrementFailedToStart();
+                    incrementAttempts();
+                }
+                lockMembership(); // shares the high bits with attempts
+            }
+        };
+        assert job.getFailedToStart() == 300;
+        assert job.getAttempts() == 300;
+        assert job.isDone() && job.isTimedOut();
+        assert !job.isRunning();
+        assert job.getFlags() == (JobState.DONE | JobState.TIMED_OUT | 300 << JobState.FAILED_SHIFT);
+    }
+
+    @Test
+    public void exclusiveChainTest() throws InterruptedException {
+        for (boolean indexed : new boolean[]{false, true}) {
+            for (boolean reversed : new boolean[]{false, true}) {
+                ExecutorService exeServ = Executors.newFixedThreadPool(4);
+                JobExecutor executor = new JobExecutor(2, 2, indexed, exeServ);
+                AtomicInteger running = new AtomicInteger(0);
+                AtomicInteger violations = new AtomicInteger(0);
+                List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+                ArrayList<Job> jobs = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    int index = i;
+                    jobs.add(new Job(j -> {
+                        if (running.incrementAndGet() > 1) {
+                            violations.incrementAndGet();
+                        }
+                        order.add(index);
+                        running.decrementAndGet();
+                    }));
+                }
+                Dependencies.mutuallyExclusive(jobs);
+                Dependencies.forwardChain(jobs, SystemJobEventName.ON_SUCCESSFUL);
+                if (reversed) {
+                    Collections.reverse(jobs);
+                }
+                // a job must not hold the point while waiting for the chain
+                executor.submitAll(jobs);
+                assert executor.shutdownAndWait(1, TimeUnit.MINUTES) : indexed + " " + reversed + " " + order;
+                assert violations.get() == 0;
+                assert order.size() == 20 : order;
+                for (int i = 0; i < 20; i++) {
+                    assert order.get(i) == i : order;
+                }
+                exeServ.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void resourcePoolRevokeTest() throws InterruptedException {
+        ResourcePool pool = new ResourcePool(1);
+        Job holder = new Job(j -> {
+        });
+        Job contender = new Job(j -> {
+        });
+        pool.addSharingJob(holder);
+        pool.addSharingJob(contender);
+        assert pool.isCompleted(holder);
+        Thread.sleep(100); // slow to be scheduled, but still going to run
+        assert !pool.isCompleted(contender);
+        holder.cancel();
+        assert pool.isCompleted(contender);
+    }
+
+    @Test
+    public void mutuallyExclusiveOrderTest() throws InterruptedException {
+        for (boolean indexed : new boolean[]{false, true}) {
+            // one worker, so concurrent scans don't first check jobs out of submission order
+            ExecutorService exeServ = Executors.newFixedThreadPool(1);
+            JobExecutor executor = new JobExecutor(2, 2, indexed, exeServ);
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            ArrayList<Job> jobs = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                int index = i;
+                jobs.add(new Job(j -> {
+                    order.add(index);
+                }));
+            }
+            MutuallyExclusivePointFIFO point = Dependencies.mutuallyExclusivePoint(jobs);
+            assert Dependencies.mutuallyExclusivePoint(jobs.subList(0, 1)) == null;
+            executor.submitAll(jobs);
+            assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+            // waiting jobs get the point in the order they were first checked
+            for (int i = 0; i < 50; i++) {
+                assert order.get(i) == i : order;
+            }
+            assert point.getOwner() == null;
+            assert point.getAvailable() == 1;
+            exeServ.shutdown();
+        }
+    }
+
+    @Test
+    public void waitingDeadlineTest() throws InterruptedException {
+        for (boolean indexed : new boolean[]{false, true}) {
+            ExecutorService exeServ = Executors.newFixedThreadPool(2);
+            JobExecutor executor = new JobExecutor(2, 2, indexed, exeServ).setDiscardMissedDeadlines(true);
+            CountDownLatch gate = new CountDownLatch(1);
+            Job<Boolean> upstream = new Job<>(() -> gate.await(1, TimeUnit.MINUTES));
+            Job waiting = new Job(j -> {
+            });
+            waiting.chainBackward(upstream);
+            waiting.setDeadline(50, TimeUnit.MILLISECONDS);
+            CountDownLatch missed = new CountDownLatch(1);
+            waiting.addListener(SystemJobEventName.ON_DEADLINE_MISSED, (j, c, d) -> missed.countDown());
+            executor.submitAll(upstream, waiting);
+            // nothing happens upstream, so only the timer can notice
+            assert missed.await(10, TimeUnit.SECONDS);
+            long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!waiting.isDiscarded() && System.nanoTime() < until) {
+                Thread.sleep(1);
+            }
+            assert waiting.isDiscarded() && !waiting.isExecuted();
+            assert upstream.isRunning();
+            gate.countDown();
+            assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+            assert executor.getDiscardedMissedDeadlines() == 1;
+            exeServ.shutdown();
+        }
+    }
+
     public static void addEventLogListeners(Job job) {
         EnumSet<SystemJobEventName> enums = EnumSet.allOf(SystemJobEventName.class);
         enums.forEach(val -> {
@@ -101,6 +1186,49 @@ public class JobTest {
         return idGen.getAndIncrement() + "";
     }
 
+    @Test
+    public void exclusivePointFIFOTest() throws InterruptedException {
+        Consumer<ArrayList<Job>> exclusive = jobs -> {
+            MutuallyExclusivePointFIFO point = new MutuallyExclusivePointFIFO();
+            jobs.forEach(point::addSharingJob);
+        };
+        doIncrement(200, false, exclusive);
+        doIncrement(1000, true, exclusive);
+    }
+
+    @Test
+    public void resourcePoolTest() throws InterruptedException {
+        for (boolean indexed : new boolean[]{false, true}) {
+            ExecutorService exeServ = Executors.newFixedThreadPool(8);
+            JobExecutor executor = new JobExecutor(2, 2, indexed, exeServ);
+            ResourcePool pool = new ResourcePool(3);
+            AtomicInteger used = new AtomicInteger(0);
+            AtomicInteger maxUsed = new AtomicInteger(0);
+            AtomicInteger ran = new AtomicInteger(0);
+            Random rng = new Random();
+            ArrayList<Job> jobList = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                int weight = rng.nextInt(2) + 1;
+                Job job = new Job(j -> {
+                    maxUsed.accumulateAndGet(used.addAndGet(weight), Math::max);
+                    LockSupport.parkNanos(100000);
+                    used.addAndGet(-weight);
+                    ran.incrementAndGet();
+                });
+                pool.addSharingJob(job, weight);
+                jobList.add(job);
+            }
+            executor.submitAll(jobList);
+
+            assert executor.shutdownAndWait(1, TimeUnit.MINUTES);
+            assert ran.get() == 60;
+            assert maxUsed.get() <= 3;
+            exeServ.shutdown();
+            exeServ.awaitTermination(1, TimeUnit.MINUTES); // own listeners run after executor ones
+            assert pool.getAvailable() == 3;
+        }
+    }
+
     @Test
     public void exclusiveInterestPointTest() throws InterruptedException {
         ExecutorService exeServ = Executors.newFixedThreadPool(8);